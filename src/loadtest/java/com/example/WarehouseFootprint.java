@@ -0,0 +1,94 @@
+package com.example;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.ref.Reference;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Измерение памяти склада: занятая куча после сборки мусора до и после заполнения склада N товарами.
+// В отличие от CompactProductStore.estimateFootprint() это замер, а не расчёт по размерам массивов.
+// Индексы сортировки listProducts появляются только после первого запроса, поэтому они строятся
+// и измеряются отдельно, после колонок. Лимит относится к сумме.
+// Запуск: gradle footprint
+//
+// Настройки через системные свойства:
+//   footprint.products - число товаров (10000000)
+//   footprint.names    - число разных названий (10000)
+//   footprint.limitMb  - допустимый расход, МБ (1024); при превышении код выхода 1
+public class WarehouseFootprint {
+    private static final int BATCH_SIZE = 10_000;
+
+    public static void main(String[] args) throws Exception {
+        int products = Integer.getInteger("footprint.products", 10_000_000);
+        int names = Integer.getInteger("footprint.names", 10_000);
+        long limitBytes = Long.getLong("footprint.limitMb", 1024) << 20;
+
+        long before = usedHeapAfterGc();
+        Warehouse warehouse = new Warehouse("footprint.none", new NoStorage());
+        LocalDate baseDate = LocalDate.of(2030, 1, 1);
+        List<AbstractProduct> batch = new ArrayList<>(BATCH_SIZE);
+        for (int id = 0; id < products; id++) {
+            String name = "Товар " + (id % names);
+            batch.add(id % 2 == 0
+                    ? new FoodProduct(id, name, 10 + id % 1000, id % 100, baseDate.plusDays(id % 365))
+                    : new ElectronicsProduct(id, name, 100 + id % 5000, id % 10, 12 + id % 24));
+            if (batch.size() == BATCH_SIZE) {
+                warehouse.addProducts(batch);
+                batch = new ArrayList<>(BATCH_SIZE);
+            }
+        }
+        warehouse.addProducts(batch);
+        warehouse.flush(); // отложенное сохранение копирует колонки, дожидаемся его до замера
+        batch = null;
+        long after = usedHeapAfterGc();
+        Reference.reachabilityFence(warehouse);
+
+        long used = after - before;
+        System.out.printf("Товаров: %d, разных названий: %d%n", warehouse.getProductCount(), names);
+        System.out.printf("Колонки: %.1f МБ, %.1f байт на SKU%n", used / 1048576.0, (double) used / products);
+        System.out.println("Оценка колонок: " + warehouse.toCompactStore().estimateFootprint());
+
+        for (ProductSortKey sortKey : ProductSortKey.values()) {
+            long start = System.nanoTime();
+            warehouse.listProducts(sortKey, 1, null);
+            long built = usedHeapAfterGc();
+            System.out.printf("Индекс %s: %.1f МБ, %.1f байт на SKU, построен за %d мс%n", sortKey,
+                    (built - after) / 1048576.0, (double) (built - after) / products,
+                    (System.nanoTime() - start) / 1_000_000);
+            after = built;
+        }
+        Reference.reachabilityFence(warehouse);
+        used = after - before;
+        System.out.printf("Всего с индексами: %.1f МБ, %.1f байт на SKU (лимит %d МБ)%n",
+                used / 1048576.0, (double) used / products, limitBytes >> 20);
+        warehouse.shutdown();
+        System.exit(used <= limitBytes ? 0 : 1);
+    }
+
+    // Несколько сборок подряд, чтобы куча успокоилась; точность - единицы мегабайт
+    private static long usedHeapAfterGc() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+            used = Math.min(used, memory.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    // Замер только памяти: фоновое сохранение ничего не пишет
+    private static class NoStorage implements ProductStorageStrategy {
+        @Override
+        public void save(List<AbstractProduct> products, String filePath) {
+        }
+
+        @Override
+        public List<AbstractProduct> load(String filePath) {
+            return Collections.emptyList();
+        }
+    }
+}
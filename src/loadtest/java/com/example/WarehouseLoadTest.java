@@ -0,0 +1,318 @@
+package com.example;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Нагрузочный тест склада: много потоков выполняют смешанную нагрузку на заполненный склад,
+// пока работают фоновая проверка сроков и отложенное сохранение. Запуск: gradle loadTest
+//
+// Настройки через системные свойства (-Dloadtest.threads=16 и т.д.):
+//   loadtest.threads   - число рабочих потоков (8)
+//   loadtest.products  - размер каталога перед стартом (100000)
+//   loadtest.warmup    - прогрев, секунд (5)
+//   loadtest.seconds   - замер, секунд (30)
+//   loadtest.mix       - веса операций (add=5,remove=2,quantity=25,search=40,analytics=20,list=8)
+//   loadtest.storage   - json или snapshot (json)
+//   loadtest.output    - каталог для отчёта и файла JFR (build/loadtest)
+public class WarehouseLoadTest {
+
+    enum Operation {
+        ADD, REMOVE, QUANTITY, SEARCH, ANALYTICS, LIST
+    }
+
+    private static final String[] NAMES = {
+            "Молоко", "Хлеб", "Сыр", "Кефир", "Йогурт", "Масло", "Чай", "Кофе", "Сахар", "Соль",
+            "Кабель", "Зарядка", "Наушники", "Мышь", "Клавиатура", "Роутер", "Лампа", "Флешка"
+    };
+
+    public static void main(String[] args) throws Exception {
+        int threads = Integer.getInteger("loadtest.threads", 8);
+        int catalogSize = Integer.getInteger("loadtest.products", 100_000);
+        int warmupSeconds = Integer.getInteger("loadtest.warmup", 5);
+        int seconds = Integer.getInteger("loadtest.seconds", 30);
+        Map<Operation, Integer> mix = parseMix(System.getProperty("loadtest.mix",
+                "add=5,remove=2,quantity=25,search=40,analytics=20,list=8"));
+        boolean snapshot = "snapshot".equals(System.getProperty("loadtest.storage", "json"));
+        Path output = Path.of(System.getProperty("loadtest.output", "build/loadtest"));
+        Files.createDirectories(output);
+
+        String runId = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        Path storageFile = output.resolve("warehouse-" + runId + (snapshot ? ".snapshot" : ".json"));
+        Warehouse warehouse = new Warehouse(storageFile.toString(),
+                snapshot ? new SnapshotProductStorageStrategy() : new JsonProductStorageStrategy());
+        populate(warehouse, catalogSize);
+        warehouse.flush();
+
+        Operation[] table = weightTable(mix);
+        AtomicInteger nextId = new AtomicInteger(catalogSize);
+        Worker[] workers = new Worker[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(warehouse, table, catalogSize, nextId, done);
+        }
+
+        System.out.printf("Склад: %d товаров, потоков: %d, прогрев %d с, замер %d с, нагрузка %s%n",
+                catalogSize, threads, warmupSeconds, seconds, mix);
+        Path jfrFile = output.resolve("loadtest-" + runId + ".jfr");
+        try (Recording recording = new Recording(Configuration.getConfiguration("profile"))) {
+            recording.setName("warehouse-loadtest-" + runId);
+            recording.setDestination(jfrFile);
+
+            for (int i = 0; i < threads; i++) {
+                Thread thread = new Thread(workers[i], "loadtest-worker-" + i);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            Thread.sleep(warmupSeconds * 1000L);
+
+            recording.start();
+            long start = System.nanoTime();
+            for (Worker worker : workers) {
+                worker.measuring = true;
+            }
+            Thread.sleep(seconds * 1000L);
+            for (Worker worker : workers) {
+                worker.running = false;
+            }
+            done.await();
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            recording.stop();
+
+            String report = report(workers, elapsed, jfrFile);
+            System.out.print(report);
+            Files.writeString(output.resolve("loadtest-" + runId + ".txt"), report, StandardCharsets.UTF_8);
+        } finally {
+            warehouse.shutdown();
+            Files.deleteIfExists(storageFile);
+        }
+    }
+
+    private static void populate(Warehouse warehouse, int count) {
+        List<AbstractProduct> batch = new ArrayList<>(10_000);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int id = 0; id < count; id++) {
+            batch.add(newProduct(id, random));
+            if (batch.size() == 10_000) {
+                warehouse.addProducts(batch);
+                batch = new ArrayList<>(10_000);
+            }
+        }
+        if (!batch.isEmpty()) {
+            warehouse.addProducts(batch);
+        }
+    }
+
+    private static AbstractProduct newProduct(int id, ThreadLocalRandom random) {
+        String name = NAMES[random.nextInt(NAMES.length)] + " " + random.nextInt(1000);
+        double price = 10 + random.nextInt(100_000) / 100.0;
+        int quantity = random.nextInt(100);
+        if (random.nextBoolean()) {
+            return new FoodProduct(id, name, price, quantity, LocalDate.now().plusDays(random.nextInt(-30, 365)));
+        }
+        return new ElectronicsProduct(id, name, price, quantity, random.nextInt(6, 37));
+    }
+
+    static Map<Operation, Integer> parseMix(String spec) {
+        Map<Operation, Integer> mix = new EnumMap<>(Operation.class);
+        for (String part : spec.split(",")) {
+            String[] kv = part.trim().split("=");
+            if (kv.length != 2) {
+                throw new IllegalArgumentException("Некорректная нагрузка: " + part);
+            }
+            mix.put(Operation.valueOf(kv[0].trim().toUpperCase()), Integer.parseInt(kv[1].trim()));
+        }
+        return mix;
+    }
+
+    // Таблица из 100 ячеек по весам операций: выбор операции - одно случайное число
+    private static Operation[] weightTable(Map<Operation, Integer> mix) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        if (total <= 0) {
+            throw new IllegalArgumentException("Сумма весов должна быть положительной");
+        }
+        List<Operation> table = new ArrayList<>();
+        mix.forEach((op, weight) -> {
+            int cells = Math.max(weight > 0 ? 1 : 0, Math.round(weight * 100f / total));
+            for (int i = 0; i < cells; i++) {
+                table.add(op);
+            }
+        });
+        return table.toArray(new Operation[0]);
+    }
+
+    private static String report(Worker[] workers, double elapsedSeconds, Path jfrFile) {
+        Map<Operation, LatencyHistogram> merged = new EnumMap<>(Operation.class);
+        LatencyHistogram all = new LatencyHistogram();
+        for (Worker worker : workers) {
+            worker.histograms.forEach((op, histogram) -> {
+                merged.computeIfAbsent(op, k -> new LatencyHistogram()).add(histogram);
+                all.add(histogram);
+            });
+        }
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%-10s %12s %12s %10s %10s %10s %10s%n",
+                "operation", "count", "ops/s", "p50 us", "p99 us", "p999 us", "max us"));
+        merged.forEach((op, histogram) -> appendRow(out, op.name(), histogram, elapsedSeconds));
+        appendRow(out, "TOTAL", all, elapsedSeconds);
+        out.append("JFR: ").append(jfrFile.toAbsolutePath()).append(System.lineSeparator());
+        return out.toString();
+    }
+
+    private static void appendRow(StringBuilder out, String name, LatencyHistogram histogram, double elapsedSeconds) {
+        out.append(String.format("%-10s %12d %12.0f %10.1f %10.1f %10.1f %10.1f%n", name, histogram.count(),
+                histogram.count() / elapsedSeconds,
+                histogram.percentile(0.50) / 1e3, histogram.percentile(0.99) / 1e3,
+                histogram.percentile(0.999) / 1e3, histogram.max() / 1e3));
+    }
+
+    private static class Worker implements Runnable {
+        private final Warehouse warehouse;
+        private final Operation[] table;
+        private final int catalogSize;
+        private final AtomicInteger nextId;
+        private final CountDownLatch done;
+        // Свои гистограммы у каждого потока, сливаются только в конце
+        private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+        volatile boolean running = true;
+        volatile boolean measuring;
+
+        Worker(Warehouse warehouse, Operation[] table, int catalogSize, AtomicInteger nextId, CountDownLatch done) {
+            this.warehouse = warehouse;
+            this.table = table;
+            this.catalogSize = catalogSize;
+            this.nextId = nextId;
+            this.done = done;
+            for (Operation op : Operation.values()) {
+                histograms.put(op, new LatencyHistogram());
+            }
+        }
+
+        @Override
+        public void run() {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            try {
+                while (running) {
+                    Operation op = table[random.nextInt(table.length)];
+                    long start = System.nanoTime();
+                    execute(op, random);
+                    long latency = System.nanoTime() - start;
+                    if (measuring) {
+                        histograms.get(op).record(latency);
+                    }
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace(new PrintStream(System.err, true));
+            } finally {
+                done.countDown();
+            }
+        }
+
+        private void execute(Operation op, ThreadLocalRandom random) {
+            switch (op) {
+                case ADD:
+                    warehouse.addProduct(newProduct(nextId.getAndIncrement(), random));
+                    break;
+                case REMOVE:
+                    warehouse.removeProduct(random.nextInt(nextId.get()));
+                    break;
+                case QUANTITY:
+                    warehouse.updateQuantity(random.nextInt(catalogSize), random.nextInt(100));
+                    break;
+                case SEARCH:
+                    warehouse.searchByName(NAMES[random.nextInt(NAMES.length)] + " " + random.nextInt(10));
+                    break;
+                case ANALYTICS:
+                    if (random.nextBoolean()) {
+                        warehouse.getAggregatesByType();
+                    } else {
+                        warehouse.getTotalValue();
+                    }
+                    break;
+                case LIST:
+                    warehouse.getAllProducts();
+                    break;
+            }
+        }
+    }
+
+    // Лог-линейная гистограмма задержек в наносекундах: 64 ячейки на каждую степень двойки (точность ~1.5%)
+    static class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 6;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+        private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS];
+        private long count;
+        private long max;
+
+        void record(long nanos) {
+            long value = Math.max(0, nanos);
+            counts[index(value)]++;
+            count++;
+            max = Math.max(max, value);
+        }
+
+        void add(LatencyHistogram other) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += other.counts[i];
+            }
+            count += other.count;
+            max = Math.max(max, other.max);
+        }
+
+        long count() {
+            return count;
+        }
+
+        long max() {
+            return max;
+        }
+
+        long percentile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * count);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        private static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1) * SUB_BUCKETS + (int) ((value >> shift) & (SUB_BUCKETS - 1));
+        }
+
+        private static long upperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = index / SUB_BUCKETS - 1;
+            long sub = index % SUB_BUCKETS;
+            return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+        }
+    }
+}
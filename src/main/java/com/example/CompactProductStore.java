@@ -0,0 +1,433 @@
+package com.example;
+
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Компактное хранение большого каталога: по массиву на каждое поле вместо объекта на продукт.
+// Названия берутся из общего пула, срок годности хранится как день эпохи (int),
+// гарантия электроники лежит в той же колонке. Это основное хранилище Warehouse:
+// колонки плюс индекс id -> строка занимают около 45 байт на SKU (плюс уникальные названия),
+// обычные AbstractProduct создаются только по запросу через toProduct и не хранятся
+public class CompactProductStore implements ProductColumns {
+    static final byte FOOD = 0;
+    static final byte ELECTRONICS = 1;
+    // В колонке extra у еды без срока годности (например, запись JSON без expirationDate)
+    static final int NO_DATE = Integer.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int NO_ROW = -1;
+
+    private final NamePool names;
+    private final IdIndex idIndex;
+    private int size;
+    private int[] ids;
+    private int[] nameIds;
+    private double[] prices;
+    private int[] quantities;
+    private byte[] kinds;
+    private int[] extras;     // epoch day (или NO_DATE) для еды, месяцы гарантии для электроники
+    private int[] sameIdNext; // следующая строка с тем же id (повторные id допускаются) или -1
+
+    public CompactProductStore() {
+        this(new NamePool());
+    }
+
+    public CompactProductStore(NamePool names) {
+        this(names, new IdIndex(), INITIAL_CAPACITY);
+    }
+
+    private CompactProductStore(NamePool names, IdIndex idIndex, int capacity) {
+        this.names = names;
+        this.idIndex = idIndex;
+        ids = new int[capacity];
+        nameIds = new int[capacity];
+        prices = new double[capacity];
+        quantities = new int[capacity];
+        kinds = new byte[capacity];
+        extras = new int[capacity];
+        sameIdNext = new int[capacity];
+    }
+
+    public static CompactProductStore of(List<AbstractProduct> products) {
+        CompactProductStore store = new CompactProductStore(new NamePool(), new IdIndex(products.size()),
+                Math.max(INITIAL_CAPACITY, products.size()));
+        products.forEach(store::add);
+        return store;
+    }
+
+    // Изменяемая копия других колонок (например, снимка перед первой записью в склад); порядок строк сохраняется
+    static CompactProductStore copyOf(ProductColumns columns) {
+        int count = columns.size();
+        CompactProductStore store = new CompactProductStore(new NamePool(), new IdIndex(count),
+                Math.max(INITIAL_CAPACITY, count));
+        int[] nameMap = new int[columns.nameCount()];
+        for (int nameId = 0; nameId < nameMap.length; nameId++) {
+            nameMap[nameId] = store.names.intern(columns.name(nameId));
+        }
+        for (int row = 0; row < count; row++) {
+            store.addRow(columns.kindAt(row), columns.idAt(row), nameMap[columns.nameIdAt(row)],
+                    columns.priceAt(row), columns.quantityAt(row), columns.extraAt(row));
+        }
+        return store;
+    }
+
+    // Хранилище под списком из asList() без копирования, иначе новое; только для чтения
+    static CompactProductStore readOnlyOf(List<AbstractProduct> products) {
+        return products instanceof ProductList ? ((ProductList) products).store() : of(products);
+    }
+
+    // Независимая копия; читать её можно из другого потока, пока оригинал меняется
+    public CompactProductStore copy() {
+        CompactProductStore copy = new CompactProductStore(names.copy(), idIndex.copy(), 0);
+        copy.size = size;
+        copy.ids = Arrays.copyOf(ids, size);
+        copy.nameIds = Arrays.copyOf(nameIds, size);
+        copy.prices = Arrays.copyOf(prices, size);
+        copy.quantities = Arrays.copyOf(quantities, size);
+        copy.kinds = Arrays.copyOf(kinds, size);
+        copy.extras = Arrays.copyOf(extras, size);
+        copy.sameIdNext = Arrays.copyOf(sameIdNext, size);
+        return copy;
+    }
+
+    public int add(AbstractProduct product) {
+        return add(kindOf(product), product.getId(), product.getName(), product.getPrice(), product.getQuantity(),
+                extraOf(product));
+    }
+
+    int add(byte kind, int id, String name, double price, int quantity, int extra) {
+        return addRow(kind, id, names.intern(name), price, quantity, extra);
+    }
+
+    private int addRow(byte kind, int id, int nameId, double price, int quantity, int extra) {
+        ensureCapacity(size + 1);
+        int row = size++;
+        ids[row] = id;
+        nameIds[row] = nameId;
+        prices[row] = price;
+        quantities[row] = quantity;
+        kinds[row] = kind;
+        extras[row] = extra;
+        sameIdNext[row] = NO_ROW;
+        int head = idIndex.putIfAbsent(id, row);
+        if (head != NO_ROW) {
+            int tail = head;
+            while (sameIdNext[tail] != NO_ROW) {
+                tail = sameIdNext[tail];
+            }
+            sameIdNext[tail] = row;
+        }
+        return row;
+    }
+
+    // Удаляет строку за O(1): на её место переносится последняя строка.
+    // Возвращает прежний номер перенесённой строки или -1, если переносить было нечего
+    int remove(int row) {
+        checkRow(row);
+        unlinkId(row);
+        int last = --size;
+        if (row == last) {
+            return NO_ROW;
+        }
+        ids[row] = ids[last];
+        nameIds[row] = nameIds[last];
+        prices[row] = prices[last];
+        quantities[row] = quantities[last];
+        kinds[row] = kinds[last];
+        extras[row] = extras[last];
+        sameIdNext[row] = sameIdNext[last];
+        // Ссылка на перенесённую строку (из индекса или из цепочки повторов) теперь указывает на row
+        int head = idIndex.get(ids[row]);
+        if (head == last) {
+            idIndex.put(ids[row], row);
+        } else {
+            int prev = head;
+            while (sameIdNext[prev] != last) {
+                prev = sameIdNext[prev];
+            }
+            sameIdNext[prev] = row;
+        }
+        return last;
+    }
+
+    private void unlinkId(int row) {
+        int id = ids[row];
+        int head = idIndex.get(id);
+        if (head == row) {
+            if (sameIdNext[row] == NO_ROW) {
+                idIndex.remove(id);
+            } else {
+                idIndex.put(id, sameIdNext[row]);
+            }
+            return;
+        }
+        int prev = head;
+        while (sameIdNext[prev] != row) {
+            prev = sameIdNext[prev];
+        }
+        sameIdNext[prev] = sameIdNext[row];
+    }
+
+    public void ensureCapacity(int capacity) {
+        if (capacity <= ids.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+        ids = Arrays.copyOf(ids, newCapacity);
+        nameIds = Arrays.copyOf(nameIds, newCapacity);
+        prices = Arrays.copyOf(prices, newCapacity);
+        quantities = Arrays.copyOf(quantities, newCapacity);
+        kinds = Arrays.copyOf(kinds, newCapacity);
+        extras = Arrays.copyOf(extras, newCapacity);
+        sameIdNext = Arrays.copyOf(sameIdNext, newCapacity);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    public NamePool getNames() {
+        return names;
+    }
+
+    public void setQuantity(int row, int quantity) {
+        checkRow(row);
+        quantities[row] = quantity;
+    }
+
+    // Первая строка с этим id или -1
+    @Override
+    public int findRow(int id) {
+        return idIndex.get(id);
+    }
+
+    // Следующая строка с тем же id или -1
+    int nextRowWithSameId(int row) {
+        return sameIdNext[row];
+    }
+
+    // Чтение колонок без создания объектов; row должен быть меньше size()
+    @Override
+    public int idAt(int row) {
+        return ids[row];
+    }
+
+    @Override
+    public int nameIdAt(int row) {
+        checkRow(row);
+        return nameIds[row];
+    }
+
+    @Override
+    public double priceAt(int row) {
+        return prices[row];
+    }
+
+    @Override
+    public int quantityAt(int row) {
+        return quantities[row];
+    }
+
+    @Override
+    public byte kindAt(int row) {
+        return kinds[row];
+    }
+
+    @Override
+    public int extraAt(int row) {
+        return extras[row];
+    }
+
+    @Override
+    public int nameCount() {
+        return names.size();
+    }
+
+    @Override
+    public String name(int nameId) {
+        return names.get(nameId);
+    }
+
+    // Полноценный объект продукта; название общее с пулом, новых строк не создаётся
+    @Override
+    public AbstractProduct toProduct(int row) {
+        checkRow(row);
+        return newProduct(kinds[row], ids[row], names.get(nameIds[row]), prices[row], quantities[row], extras[row]);
+    }
+
+    // Список только для чтения поверх хранилища; каждый get создаёт новый объект продукта
+    public List<AbstractProduct> asList() {
+        return new ProductList();
+    }
+
+    // Бросает исключение, если продукт нельзя записать в колонки; склад проверяет до любых изменений
+    static void checkStorable(AbstractProduct product) {
+        kindOf(product);
+        extraOf(product);
+    }
+
+    static byte kindOf(AbstractProduct product) {
+        if (product == null) {
+            throw new IllegalArgumentException("Продукт не задан");
+        }
+        if (product instanceof FoodProduct) {
+            return FOOD;
+        }
+        if (product instanceof ElectronicsProduct) {
+            return ELECTRONICS;
+        }
+        throw new IllegalArgumentException("Неизвестный тип продукта: " + product.getClass().getName()
+                + " (поддерживаются FoodProduct и ElectronicsProduct)");
+    }
+
+    static int extraOf(AbstractProduct product) {
+        if (product instanceof FoodProduct) {
+            LocalDate expiration = ((FoodProduct) product).getExpirationDate();
+            return expiration == null ? NO_DATE : (int) expiration.toEpochDay();
+        }
+        return ((ElectronicsProduct) product).getWarrantyMonths();
+    }
+
+    // День эпохи окончания срока годности; Long.MAX_VALUE для электроники и еды без срока
+    static long expirationDay(byte kind, int extra) {
+        return kind == FOOD && extra != NO_DATE ? extra : Long.MAX_VALUE;
+    }
+
+    static AbstractProduct newProduct(byte kind, int id, String name, double price, int quantity, int extra) {
+        if (kind == FOOD) {
+            return new FoodProduct(id, name, price, quantity, extra == NO_DATE ? null : LocalDate.ofEpochDay(extra));
+        }
+        return new ElectronicsProduct(id, name, price, quantity, extra);
+    }
+
+    // Имя типа, как его возвращает getClass().getSimpleName() у продукта
+    static String typeName(byte kind) {
+        return kind == FOOD ? FoodProduct.class.getSimpleName() : ElectronicsProduct.class.getSimpleName();
+    }
+
+    // Flyweight: один объект-курсор на поток, переставляется на нужную строку без выделения памяти
+    public View view() {
+        return new View();
+    }
+
+    // Оценка по размерам массивов и строк при сжатых указателях, без измерения кучи.
+    // Реальный расход на складе измеряет gradle footprint (src/loadtest)
+    public FootprintEstimate estimateFootprint() {
+        long columns = NamePool.align(16L + 4L * ids.length) * 5   // ids, nameIds, quantities, extras, sameIdNext
+                + NamePool.align(16L + 8L * prices.length)
+                + NamePool.align(16L + kinds.length)
+                + NamePool.align(16L + 8L * idIndex.capacity());
+        return new FootprintEstimate(size, names.size(), columns, names.estimateBytes());
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Строка " + row + ", размер " + size);
+        }
+    }
+
+    public class View {
+        private int row;
+
+        public View at(int row) {
+            checkRow(row);
+            this.row = row;
+            return this;
+        }
+
+        public int getId() {
+            return ids[row];
+        }
+
+        public String getName() {
+            return names.get(nameIds[row]);
+        }
+
+        public double getPrice() {
+            return prices[row];
+        }
+
+        public int getQuantity() {
+            return quantities[row];
+        }
+
+        public boolean isFood() {
+            return kinds[row] == FOOD;
+        }
+
+        // Только для еды; NO_DATE, если срок не задан
+        public long getExpirationEpochDay() {
+            return extras[row];
+        }
+
+        // Только для электроники
+        public int getWarrantyMonths() {
+            return extras[row];
+        }
+
+        public AbstractProduct toProduct() {
+            return CompactProductStore.this.toProduct(row);
+        }
+    }
+
+    private class ProductList extends AbstractList<AbstractProduct> implements RandomAccess {
+        @Override
+        public AbstractProduct get(int index) {
+            return toProduct(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        CompactProductStore store() {
+            return CompactProductStore.this;
+        }
+    }
+
+    // Оценка занимаемой памяти (не измерение): размеры массивов и строк при сжатых указателях
+    public static class FootprintEstimate {
+        // Для сравнения: FoodProduct (~40 байт) + LocalDate (24) + своя строка названия (~56) + ссылка в списке
+        static final long OBJECT_BYTES_PER_SKU = 40 + 24 + 56 + 4;
+
+        private final int skuCount;
+        private final int uniqueNames;
+        private final long columnBytes;
+        private final long nameBytes;
+
+        FootprintEstimate(int skuCount, int uniqueNames, long columnBytes, long nameBytes) {
+            this.skuCount = skuCount;
+            this.uniqueNames = uniqueNames;
+            this.columnBytes = columnBytes;
+            this.nameBytes = nameBytes;
+        }
+
+        public int getSkuCount() {
+            return skuCount;
+        }
+
+        public int getUniqueNames() {
+            return uniqueNames;
+        }
+
+        public long getEstimatedBytes() {
+            return columnBytes + nameBytes;
+        }
+
+        public double getEstimatedBytesPerSku() {
+            return skuCount == 0 ? 0 : (double) getEstimatedBytes() / skuCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("FootprintEstimate{sku=%d, uniqueNames=%d, columns~%d B, names~%d B,"
+                            + " bytesPerSku~%.1f (objects ~%d)}",
+                    skuCount, uniqueNames, columnBytes, nameBytes, getEstimatedBytesPerSku(), OBJECT_BYTES_PER_SKU);
+        }
+    }
+}
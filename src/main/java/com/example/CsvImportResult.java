@@ -0,0 +1,66 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// Итог импорта CSV: сколько строк принято и какие строки отклонены (с причиной)
+public class CsvImportResult {
+    // Подробности храним только для первых отклонённых строк, остальные лишь считаем
+    static final int MAX_REPORTED_REJECTIONS = 1000;
+
+    private long imported;
+    private long rejected;
+    private final List<RejectedRow> rejectedRows = new ArrayList<>();
+
+    void addImported() {
+        imported++;
+    }
+
+    void addRejected(long lineNumber, String reason) {
+        rejected++;
+        if (rejectedRows.size() < MAX_REPORTED_REJECTIONS) {
+            rejectedRows.add(new RejectedRow(lineNumber, reason));
+        }
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public List<RejectedRow> getRejectedRows() {
+        return Collections.unmodifiableList(rejectedRows);
+    }
+
+    @Override
+    public String toString() {
+        return "CsvImportResult{imported=" + imported + ", rejected=" + rejected + '}';
+    }
+
+    public static class RejectedRow {
+        private final long lineNumber;
+        private final String reason;
+
+        RejectedRow(long lineNumber, String reason) {
+            this.lineNumber = lineNumber;
+            this.reason = reason;
+        }
+
+        public long getLineNumber() {
+            return lineNumber;
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return "line " + lineNumber + ": " + reason;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+// Выгрузка в CSV в том же формате, который читает CsvProductImporter.
+// Название null - пустое поле, пустое название - "" в кавычках; еда без срока - пустое поле extra
+public class CsvProductExporter {
+    public static final String HEADER = "type,id,name,price,quantity,extra";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Строки пишутся прямо из колонок копии склада, объекты продуктов не создаются
+    public void export(Warehouse warehouse, Path path) throws IOException {
+        CompactProductStore store = warehouse.toCompactStore();
+        StringBuilder line = new StringBuilder(128);
+        try (Writer writer = open(path)) {
+            for (int row = 0; row < store.size(); row++) {
+                appendRow(line, store.kindAt(row), store.idAt(row), store.nameAt(row), store.priceAt(row),
+                        store.quantityAt(row), store.extraAt(row));
+                writer.append(line);
+            }
+        }
+    }
+
+    public void export(List<AbstractProduct> products, Path path) throws IOException {
+        StringBuilder line = new StringBuilder(128);
+        try (Writer writer = open(path)) {
+            for (AbstractProduct product : products) {
+                appendRow(line, CompactProductStore.kindOf(product), product.getId(), product.getName(),
+                        product.getPrice(), product.getQuantity(), CompactProductStore.extraOf(product));
+                writer.append(line);
+            }
+        }
+    }
+
+    private static Writer open(Path path) throws IOException {
+        Writer writer = new BufferedWriter(
+                new OutputStreamWriter(Files.newOutputStream(path), StandardCharsets.UTF_8), BUFFER_SIZE);
+        writer.write(HEADER);
+        writer.write('\n');
+        return writer;
+    }
+
+    private static void appendRow(StringBuilder line, byte kind, int id, String name, double price, int quantity,
+                                  int extra) {
+        line.setLength(0);
+        line.append(CompactProductStore.typeName(kind)).append(',').append(id).append(',');
+        appendName(line, name);
+        line.append(',').append(price).append(',').append(quantity).append(',');
+        if (kind == CompactProductStore.ELECTRONICS) {
+            line.append(extra);
+        } else if (extra != CompactProductStore.NO_DATE) {
+            line.append(LocalDate.ofEpochDay(extra));
+        }
+        line.append('\n');
+    }
+
+    // Названия с запятыми или кавычками берутся в кавычки.
+    // Импорт читает файл построчно, поэтому переводы строк в названии заменяются пробелом
+    private static void appendName(StringBuilder line, String name) {
+        if (name == null) {
+            return;
+        }
+        boolean needsQuotes = name.isEmpty() || name.indexOf(',') >= 0 || name.indexOf('"') >= 0;
+        if (needsQuotes) {
+            line.append('"');
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            if (c == '"') {
+                line.append('"');
+            } else if (c == '\n' || c == '\r') {
+                c = ' ';
+            }
+            line.append(c);
+        }
+        if (needsQuotes) {
+            line.append('"');
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package com.example;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.function.Consumer;
+
+// Потоковый импорт CSV: type,id,name,price,quantity,extra
+// (extra - дата YYYY-MM-DD для FoodProduct или месяцы гарантии для ElectronicsProduct).
+// Пустое название без кавычек - товар без названия (null), "" - пустое название;
+// пустое поле extra у FoodProduct - продукт без срока годности.
+// Файл читается блоками через FileChannel, числа и даты разбираются прямо из байтов,
+// строка создаётся только для названия. Строки собираются в колонки (ProductRows) и передаются
+// дальше пачками, ошибочные строки попадают в отчёт и не прерывают импорт
+public class CsvProductImporter {
+    public static final int DEFAULT_BATCH_SIZE = 10_000;
+
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int FIELDS = 6;
+    private static final byte[] FOOD = "FoodProduct".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ELECTRONICS = "ElectronicsProduct".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEADER = "type,".getBytes(StandardCharsets.US_ASCII);
+    private static final long DAYS_0000_TO_1970 = 719_528;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18
+    };
+
+    private final int batchSize;
+    private final int[] fieldStart = new int[FIELDS];
+    private final int[] fieldEnd = new int[FIELDS];
+    private final boolean[] fieldQuoted = new boolean[FIELDS];
+
+    public CsvProductImporter() {
+        this(DEFAULT_BATCH_SIZE);
+    }
+
+    public CsvProductImporter(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize должен быть положительным: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    // Во время импорта склад не сохраняется в фоне, файл пишется один раз после последней пачки
+    // Пачки уходят в склад колонками, объекты продуктов не создаются
+    public CsvImportResult importInto(Warehouse warehouse, Path path) throws IOException {
+        warehouse.suspendSaves();
+        try {
+            return importRows(path, warehouse::addRows);
+        } finally {
+            warehouse.resumeSaves();
+        }
+    }
+
+    // Каждая пачка - новый список новых продуктов
+    public CsvImportResult importFile(Path path, Consumer<List<AbstractProduct>> batchSink) throws IOException {
+        return importRows(path, rows -> batchSink.accept(rows.toProducts()));
+    }
+
+    // Одна и та же пачка переиспользуется: batchSink должен забрать строки до возврата
+    CsvImportResult importRows(Path path, Consumer<ProductRows> batchSink) throws IOException {
+        CsvImportResult result = new CsvImportResult();
+        ProductRows batch = new ProductRows(batchSize);
+        byte[] buf = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(buf);
+        long lineNumber = 0;
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            boolean eof = false;
+            while (!eof) {
+                eof = channel.read(buffer) < 0;
+                int filled = buffer.position();
+                int lineStart = 0;
+                for (int i = 0; i < filled; i++) {
+                    if (buf[i] == '\n') {
+                        lineNumber++;
+                        processLine(buf, lineStart, i, lineNumber, batch, result);
+                        lineStart = i + 1;
+                        if (batch.size() >= batchSize) {
+                            batchSink.accept(batch);
+                            batch.clear();
+                        }
+                    }
+                }
+                if (eof) {
+                    if (lineStart < filled) {
+                        lineNumber++;
+                        processLine(buf, lineStart, filled, lineNumber, batch, result);
+                    }
+                } else if (lineStart == 0 && filled == buf.length) {
+                    throw new IOException("Строка " + (lineNumber + 1) + " длиннее " + BUFFER_SIZE + " байт");
+                } else {
+                    // Незаконченную строку переносим в начало буфера
+                    System.arraycopy(buf, lineStart, buf, 0, filled - lineStart);
+                    buffer.position(filled - lineStart);
+                }
+            }
+        }
+        if (batch.size() > 0) {
+            batchSink.accept(batch);
+        }
+        return result;
+    }
+
+    private void processLine(byte[] b, int start, int end, long lineNumber, ProductRows batch,
+                             CsvImportResult result) {
+        if (end > start && b[end - 1] == '\r') {
+            end--;
+        }
+        if (end == start || (lineNumber == 1 && startsWith(b, start, end, HEADER))) {
+            return; // пустая строка или заголовок
+        }
+        try {
+            splitFields(b, start, end);
+            int id = parseInt(b, fieldStart[1], fieldEnd[1], "id");
+            String name = parseName(b);
+            double price = parseDouble(b, fieldStart[3], fieldEnd[3], "price");
+            int quantity = parseInt(b, fieldStart[4], fieldEnd[4], "quantity");
+            if (price < 0 || quantity < 0) {
+                throw new RowException("отрицательная цена или количество");
+            }
+            byte kind;
+            int extra;
+            if (equalsBytes(b, fieldStart[0], fieldEnd[0], FOOD)) {
+                kind = CompactProductStore.FOOD;
+                extra = fieldStart[5] == fieldEnd[5]
+                        ? CompactProductStore.NO_DATE
+                        : parseEpochDay(b, fieldStart[5], fieldEnd[5]);
+            } else if (equalsBytes(b, fieldStart[0], fieldEnd[0], ELECTRONICS)) {
+                kind = CompactProductStore.ELECTRONICS;
+                extra = parseInt(b, fieldStart[5], fieldEnd[5], "warrantyMonths");
+            } else {
+                throw new RowException("неизвестный тип '" + text(b, fieldStart[0], fieldEnd[0]) + "'");
+            }
+            batch.add(kind, id, name, price, quantity, extra);
+            result.addImported();
+        } catch (RowException e) {
+            result.addRejected(lineNumber, e.getMessage());
+        }
+    }
+
+    // Находит границы полей; поле в кавычках может содержать запятые и "" вместо кавычки
+    private void splitFields(byte[] b, int start, int end) throws RowException {
+        int pos = start;
+        for (int field = 0; field < FIELDS; field++) {
+            if (pos < end && b[pos] == '"') {
+                int i = pos + 1;
+                while (true) {
+                    if (i >= end) {
+                        throw new RowException("незакрытая кавычка");
+                    }
+                    if (b[i] == '"') {
+                        if (i + 1 < end && b[i + 1] == '"') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+                fieldStart[field] = pos + 1;
+                fieldEnd[field] = i;
+                fieldQuoted[field] = true;
+                pos = i + 1;
+            } else {
+                int i = pos;
+                while (i < end && b[i] != ',') {
+                    i++;
+                }
+                fieldStart[field] = pos;
+                fieldEnd[field] = i;
+                fieldQuoted[field] = false;
+                pos = i;
+            }
+            boolean last = field == FIELDS - 1;
+            if (last ? pos != end : pos >= end || b[pos] != ',') {
+                throw new RowException("ожидалось " + FIELDS + " полей");
+            }
+            pos++;
+        }
+    }
+
+    private String parseName(byte[] b) {
+        int start = fieldStart[2];
+        int end = fieldEnd[2];
+        if (start == end) {
+            return fieldQuoted[2] ? "" : null;
+        }
+        String name = new String(b, start, end - start, StandardCharsets.UTF_8);
+        return fieldQuoted[2] ? name.replace("\"\"", "\"") : name;
+    }
+
+    static int parseInt(byte[] b, int start, int end, String field) throws RowException {
+        int i = start;
+        boolean negative = i < end && b[i] == '-';
+        if (negative) {
+            i++;
+        }
+        if (i == end || end - i > 10) {
+            throw new RowException("некорректное поле " + field);
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new RowException("некорректное поле " + field);
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            throw new RowException("поле " + field + " вне диапазона int");
+        }
+        return (int) value;
+    }
+
+    // Десятичная запись без экспоненты; при мантиссе до 2^53 результат округлён так же, как Double.parseDouble
+    static double parseDouble(byte[] b, int start, int end, String field) throws RowException {
+        int i = start;
+        boolean negative = i < end && b[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; i < end; i++) {
+            byte c = b[i];
+            if (c == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+                continue;
+            }
+            int digit = c - '0';
+            if (digit < 0 || digit > 9) {
+                return parseDoubleSlow(b, start, end, field);
+            }
+            if (++digits > 18) {
+                return parseDoubleSlow(b, start, end, field);
+            }
+            mantissa = mantissa * 10 + digit;
+            if (fractionDigits >= 0) {
+                fractionDigits++;
+            }
+        }
+        if (digits == 0) {
+            throw new RowException("некорректное поле " + field);
+        }
+        if (mantissa > (1L << 53)) {
+            return parseDoubleSlow(b, start, end, field);
+        }
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return negative ? -value : value;
+    }
+
+    private static double parseDoubleSlow(byte[] b, int start, int end, String field) throws RowException {
+        try {
+            double value = Double.parseDouble(text(b, start, end));
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                throw new RowException("некорректное поле " + field);
+            }
+            return value;
+        } catch (NumberFormatException e) {
+            throw new RowException("некорректное поле " + field);
+        }
+    }
+
+    // Строго YYYY-MM-DD; результат - epoch day, как LocalDate.toEpochDay(), но без объекта даты
+    static int parseEpochDay(byte[] b, int start, int end) throws RowException {
+        if (end - start != 10 || b[start + 4] != '-' || b[start + 7] != '-') {
+            throw new RowException("дата должна быть в формате YYYY-MM-DD");
+        }
+        int year = digits(b, start, start + 4);
+        int month = digits(b, start + 5, start + 7);
+        int day = digits(b, start + 8, start + 10);
+        if (month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            throw new RowException("несуществующая дата " + text(b, start, end));
+        }
+        // Тот же расчёт, что в LocalDate.toEpochDay для неотрицательного года
+        long total = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400;
+        total += (367 * month - 362) / 12 + day - 1;
+        if (month > 2) {
+            total -= isLeapYear(year) ? 1 : 2;
+        }
+        return (int) (total - DAYS_0000_TO_1970);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int digits(byte[] b, int start, int end) throws RowException {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new RowException("дата должна быть в формате YYYY-MM-DD");
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean equalsBytes(byte[] b, int start, int end, byte[] expected) {
+        return end - start == expected.length && startsWith(b, start, end, expected);
+    }
+
+    private static boolean startsWith(byte[] b, int start, int end, byte[] prefix) {
+        if (end - start < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (b[start + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String text(byte[] b, int start, int end) {
+        return new String(b, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    // Ошибка в строке; без стека, потому что это обычный отказ, а не сбой
+    static class RowException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        RowException(String message) {
+            super(message, null, false, false);
+        }
+    }
+}
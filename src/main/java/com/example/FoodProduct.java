@@ -21,6 +21,8 @@ public class FoodProduct extends AbstractProduct {
 
     @Override
     public String toString() {
-        return super.toString() + ", expirationDate=" + expirationDate.format(DateTimeFormatter.ISO_DATE) + '}';
+        // Срок может быть не задан (например, в JSON нет expirationDate)
+        return super.toString() + ", expirationDate="
+                + (expirationDate == null ? "none" : expirationDate.format(DateTimeFormatter.ISO_DATE)) + '}';
     }
 }
\ No newline at end of file
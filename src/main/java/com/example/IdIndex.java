@@ -0,0 +1,142 @@
+package com.example;
+
+// Хэш-таблица id -> номер строки на одном массиве int, без упаковки в Integer и объектов-записей.
+// id и строка лежат рядом (table[2 * slot], table[2 * slot + 1]), поэтому проба - одно обращение к памяти.
+// Открытая адресация с линейным пробированием; удаление сдвигает хвост цепочки, "надгробий" нет
+class IdIndex {
+    private static final int NO_ROW = -1;
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] table;
+    private int mask;
+    private int size;
+
+    IdIndex() {
+        this(0);
+    }
+
+    IdIndex(int expected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3L / 4 < expected) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private IdIndex(IdIndex other) {
+        table = other.table.clone();
+        mask = other.mask;
+        size = other.size;
+    }
+
+    IdIndex copy() {
+        return new IdIndex(this);
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return mask + 1;
+    }
+
+    // Строка для id или -1
+    int get(int id) {
+        for (int slot = slot(id); ; slot = (slot + 1) & mask) {
+            int row = table[2 * slot + 1];
+            if (row == NO_ROW || table[2 * slot] == id) {
+                return row;
+            }
+        }
+    }
+
+    void put(int id, int row) {
+        int slot = find(id);
+        if (table[2 * slot + 1] == NO_ROW) {
+            if (size + 1 > capacity() * 3 / 4) {
+                grow();
+                put(id, row);
+                return;
+            }
+            table[2 * slot] = id;
+            size++;
+        }
+        table[2 * slot + 1] = row;
+    }
+
+    // Добавляет id -> row, если id ещё нет; возвращает прежнюю строку или -1. Одна проба вместо get + put
+    int putIfAbsent(int id, int row) {
+        int slot = find(id);
+        int existing = table[2 * slot + 1];
+        if (existing != NO_ROW) {
+            return existing;
+        }
+        if (size + 1 > capacity() * 3 / 4) {
+            grow();
+            return putIfAbsent(id, row);
+        }
+        table[2 * slot] = id;
+        table[2 * slot + 1] = row;
+        size++;
+        return NO_ROW;
+    }
+
+    void remove(int id) {
+        int slot = find(id);
+        if (table[2 * slot + 1] == NO_ROW) {
+            return;
+        }
+        size--;
+        // Сдвигаем назад записи, которые пробировались через освободившуюся ячейку
+        int free = slot;
+        for (int next = (free + 1) & mask; table[2 * next + 1] != NO_ROW; next = (next + 1) & mask) {
+            int home = slot(table[2 * next]);
+            boolean stays = free <= next ? free < home && home <= next : free < home || home <= next;
+            if (!stays) {
+                table[2 * free] = table[2 * next];
+                table[2 * free + 1] = table[2 * next + 1];
+                free = next;
+            }
+        }
+        table[2 * free + 1] = NO_ROW;
+    }
+
+    // Ячейка с этим id или первая свободная на его цепочке
+    private int find(int id) {
+        int slot = slot(id);
+        while (table[2 * slot + 1] != NO_ROW && table[2 * slot] != id) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        int[] old = table;
+        allocate(capacity() * 2);
+        for (int i = 0; i < old.length; i += 2) {
+            if (old[i + 1] != NO_ROW) {
+                int slot = slot(old[i]);
+                while (table[2 * slot + 1] != NO_ROW) {
+                    slot = (slot + 1) & mask;
+                }
+                table[2 * slot] = old[i];
+                table[2 * slot + 1] = old[i + 1];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        table = new int[2 * capacity];
+        for (int i = 1; i < table.length; i += 2) {
+            table[i] = NO_ROW;
+        }
+        mask = capacity - 1;
+    }
+
+    // Перемешивание, чтобы идущие подряд id не собирались в длинные цепочки
+    private int slot(int id) {
+        int h = id * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
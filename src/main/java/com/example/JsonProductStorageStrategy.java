@@ -26,16 +26,21 @@ public class JsonProductStorageStrategy implements ProductStorageStrategy {
                 .create();
     }*/
     public JsonProductStorageStrategy() {
+        this.gson = gsonBuilder()
+                .setPrettyPrinting()
+                .create();
+    }
+
+    // Общие настройки Gson для продуктов (используются и в репликации)
+    static GsonBuilder gsonBuilder() {
         RuntimeTypeAdapterFactory<AbstractProduct> productFactory = RuntimeTypeAdapterFactory
                 .of(AbstractProduct.class, "type")
                 .registerSubtype(FoodProduct.class, "FoodProduct")
                 .registerSubtype(ElectronicsProduct.class, "ElectronicsProduct");
 
-        this.gson = new GsonBuilder()
+        return new GsonBuilder()
                 .registerTypeAdapterFactory(productFactory)
-                .registerTypeAdapter(LocalDate.class, new LocalDateAdapter())
-                .setPrettyPrinting()
-                .create();
+                .registerTypeAdapter(LocalDate.class, new LocalDateAdapter());
     }
 
     @Override
@@ -3,7 +3,17 @@ package com.example;
 import javax.swing.SwingUtilities;
 
 public class Main {
+    // Необязательный аргумент - файл склада; *.snapshot открывается как бинарный снимок
     public static void main(String[] args) {
-        SwingUtilities.invokeLater(WarehouseGUI::new);
+        if (args.length == 0) {
+            SwingUtilities.invokeLater(WarehouseGUI::new);
+            return;
+        }
+        String filePath = args[0];
+        ProductStorageStrategy strategy = filePath.endsWith(".snapshot")
+                ? new SnapshotProductStorageStrategy()
+                : new JsonProductStorageStrategy();
+        Warehouse warehouse = new Warehouse(filePath, strategy);
+        SwingUtilities.invokeLater(() -> new WarehouseGUI(warehouse));
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,76 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Пул названий: одинаковые названия хранятся один раз, продукт хранит только номер в пуле.
+// Названия удалённых продуктов остаются в пуле, пока склад не загрузят заново
+public class NamePool {
+    private Map<String, Integer> ids; // null у копии только для чтения, строится при первом intern
+    private final List<String> names;
+    private long stringBytes;
+
+    public NamePool() {
+        this.ids = new HashMap<>();
+        this.names = new ArrayList<>();
+    }
+
+    private NamePool(List<String> names, long stringBytes) {
+        this.names = names;
+        this.stringBytes = stringBytes;
+    }
+
+    // Копия для чтения из другого потока (например, при сохранении), пока склад добавляет новые названия
+    NamePool copy() {
+        return new NamePool(new ArrayList<>(names), stringBytes);
+    }
+
+    public int intern(String name) {
+        if (ids == null) {
+            ids = new HashMap<>();
+            for (int i = 0; i < names.size(); i++) {
+                ids.put(names.get(i), i);
+            }
+        }
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+            stringBytes += estimateStringBytes(name);
+        }
+        return id;
+    }
+
+    public String get(int id) {
+        return names.get(id);
+    }
+
+    public int size() {
+        return names.size();
+    }
+
+    // Оценка памяти пула: сами строки, запись HashMap с Integer и ячейки таблиц
+    public long estimateBytes() {
+        int entries = names.size();
+        long mapEntries = entries * (32L + 16L);
+        long tables = 16L + Integer.highestOneBit(Math.max(1, entries * 4 / 3)) * 2L * 4L + 16L + entries * 4L;
+        return stringBytes + mapEntries + tables;
+    }
+
+    // String (24 байта) + byte[] с заголовком 16 байт; не-латиница хранится по 2 байта на символ
+    static long estimateStringBytes(String s) {
+        if (s == null) {
+            return 0;
+        }
+        boolean latin1 = s.chars().allMatch(c -> c < 256);
+        long data = latin1 ? s.length() : 2L * s.length();
+        return 24 + align(16 + data);
+    }
+
+    static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
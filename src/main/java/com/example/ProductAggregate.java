@@ -0,0 +1,84 @@
+package com.example;
+
+import java.time.LocalDate;
+
+// Агрегаты по группе продуктов, считаются за один проход.
+// Каждый поток копит свой экземпляр, потом частичные результаты сливаются через combine.
+// Снаружи пакета только для чтения: готовые агрегаты лежат в кэше запросов склада и отдаются всем
+public class ProductAggregate {
+    static final long NO_EXPIRATION = Long.MAX_VALUE;
+
+    private long count;
+    private double totalValue;
+    private long totalQuantity;
+    private double priceSum;
+    private double minPrice = Double.POSITIVE_INFINITY;
+    private double maxPrice = Double.NEGATIVE_INFINITY;
+    private long nearestExpirationDay = NO_EXPIRATION; // день эпохи
+
+    ProductAggregate() {
+    }
+
+    void accept(AbstractProduct product) {
+        LocalDate expiration = product instanceof FoodProduct ? ((FoodProduct) product).getExpirationDate() : null;
+        accept(product.getPrice(), product.getQuantity(), expiration == null ? NO_EXPIRATION : expiration.toEpochDay());
+    }
+
+    // Строка склада без создания объекта продукта; expirationDay - NO_EXPIRATION, если срока нет
+    void accept(double price, int quantity, long expirationDay) {
+        count++;
+        totalValue += price * quantity;
+        totalQuantity += quantity;
+        priceSum += price;
+        minPrice = Math.min(minPrice, price);
+        maxPrice = Math.max(maxPrice, price);
+        nearestExpirationDay = Math.min(nearestExpirationDay, expirationDay);
+    }
+
+    ProductAggregate combine(ProductAggregate other) {
+        count += other.count;
+        totalValue += other.totalValue;
+        totalQuantity += other.totalQuantity;
+        priceSum += other.priceSum;
+        minPrice = Math.min(minPrice, other.minPrice);
+        maxPrice = Math.max(maxPrice, other.maxPrice);
+        nearestExpirationDay = Math.min(nearestExpirationDay, other.nearestExpirationDay);
+        return this;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getTotalValue() {
+        return totalValue;
+    }
+
+    public long getTotalQuantity() {
+        return totalQuantity;
+    }
+
+    public double getMinPrice() {
+        return count == 0 ? 0 : minPrice;
+    }
+
+    public double getMaxPrice() {
+        return count == 0 ? 0 : maxPrice;
+    }
+
+    public double getAveragePrice() {
+        return count == 0 ? 0 : priceSum / count;
+    }
+
+    // null, если в группе нет продуктов со сроком годности
+    public LocalDate getNearestExpiration() {
+        return nearestExpirationDay == NO_EXPIRATION ? null : LocalDate.ofEpochDay(nearestExpirationDay);
+    }
+
+    @Override
+    public String toString() {
+        return "Aggregate{count=" + count + ", totalValue=" + totalValue + ", totalQuantity=" + totalQuantity
+                + ", minPrice=" + getMinPrice() + ", maxPrice=" + getMaxPrice() + ", avgPrice=" + getAveragePrice()
+                + ", nearestExpiration=" + getNearestExpiration() + '}';
+    }
+}
@@ -0,0 +1,36 @@
+package com.example;
+
+// Товары склада в виде колонок: чтение полей строки без создания объектов продуктов.
+// Реализации - изменяемое CompactProductStore и отображённый в память ProductSnapshot,
+// поэтому запросы склада работают по снимку напрямую, пока в склад ничего не записали
+interface ProductColumns {
+    int size();
+
+    // Строка с этим id или -1
+    int findRow(int id);
+
+    int idAt(int row);
+
+    int nameIdAt(int row);
+
+    double priceAt(int row);
+
+    int quantityAt(int row);
+
+    byte kindAt(int row);
+
+    // epoch day для еды, месяцы гарантии для электроники
+    int extraAt(int row);
+
+    // Число разных названий; nameIdAt возвращает номер из диапазона [0, nameCount)
+    int nameCount();
+
+    String name(int nameId);
+
+    default String nameAt(int row) {
+        return name(nameIdAt(row));
+    }
+
+    // Новый объект на каждый вызов
+    AbstractProduct toProduct(int row);
+}
@@ -0,0 +1,305 @@
+package com.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+// Упорядоченный индекс строк хранилища по одному ключу сортировки для постраничного вывода.
+// Хранится как отсортированный массив номеров строк: 4 байта на товар вместо узла дерева с ключом.
+// Курсор - это ключ последнего отданного товара, а не номер позиции, поэтому страница
+// находится двоичным поиском за O(log n + размер страницы) и не съезжает при добавлении и удалении
+// других товаров. Ключ вычисляется из колонок строки, поэтому отдельной карты товар -> ключ нет.
+// Склад вызывает remove до изменения строки и add после. Доступ только под блокировкой склада
+class ProductIndex {
+    private final ProductSortKey sortKey;
+    private final ProductColumns store;
+    private int[] rows;
+    private int size;
+
+    // rows уже упорядочены по sortKey (см. Draft)
+    ProductIndex(ProductSortKey sortKey, ProductColumns store, int[] rows) {
+        this.sortKey = sortKey;
+        this.store = store;
+        this.rows = rows;
+        this.size = rows.length;
+    }
+
+    static ProductIndex build(ProductSortKey sortKey, ProductColumns store) {
+        return new ProductIndex(sortKey, store, new Draft(sortKey, store).sortedRows());
+    }
+
+    ProductSortKey getSortKey() {
+        return sortKey;
+    }
+
+    // Вставка со сдвигом хвоста массива: O(log n) сравнений и O(n) копирования
+    void add(int row) {
+        int position = insertionPoint(row);
+        if (size == rows.length) {
+            rows = Arrays.copyOf(rows, Math.max(16, size + (size >> 1)));
+        }
+        System.arraycopy(rows, position, rows, position + 1, size - position);
+        rows[position] = row;
+        size++;
+    }
+
+    void remove(int row) {
+        int position = insertionPoint(row);
+        if (position < size && rows[position] == row) {
+            System.arraycopy(rows, position + 1, rows, position, size - position - 1);
+            size--;
+        }
+    }
+
+    // Строки [fromRow, toRow) добавлены в хранилище одной пачкой: сортируем только их
+    // и сливаем с индексом за один проход вместо сдвига массива на каждую строку
+    void addRows(int fromRow, int toRow) {
+        int count = toRow - fromRow;
+        if (count <= 0) {
+            return;
+        }
+        int[] added = new int[count];
+        for (int i = 0; i < count; i++) {
+            added[i] = fromRow + i;
+        }
+        sort(added, this::compareRows);
+        int[] merged = new int[size + count];
+        int i = 0;
+        int j = 0;
+        for (int k = 0; k < merged.length; k++) {
+            merged[k] = j == count || (i < size && compareRows(rows[i], added[j]) < 0) ? rows[i++] : added[j++];
+        }
+        rows = merged;
+        size = merged.length;
+    }
+
+    ProductPage page(String cursor, int pageSize) {
+        int position = cursor == null ? 0 : positionAfter(decode(sortKey, cursor));
+        int end = (int) Math.min(size, (long) position + pageSize);
+        List<AbstractProduct> items = new ArrayList<>(Math.max(0, end - position));
+        for (int i = position; i < end; i++) {
+            items.add(store.toProduct(rows[i]));
+        }
+        if (end >= size || items.isEmpty()) {
+            return new ProductPage(items, null);
+        }
+        return new ProductPage(items, encode(sortKey, sortKey.keyOf(store, rows[end - 1])));
+    }
+
+    // Первая позиция, где строка не меньше row (для строки из индекса - её позиция)
+    private int insertionPoint(int row) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareRows(rows[mid], row) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Первая позиция с ключом строго больше after
+    private int positionAfter(IndexKey after) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (sortKey.keyOf(store, rows[mid]).compareTo(after) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Тот же порядок, что IndexKey.compareTo, но без создания ключей
+    private int compareRows(int a, int b) {
+        int result;
+        if (sortKey == ProductSortKey.NAME) {
+            int nameA = store.nameIdAt(a);
+            int nameB = store.nameIdAt(b);
+            result = nameA == nameB ? 0 : IndexKey.compareNames(store.name(nameA), store.name(nameB));
+        } else {
+            result = Long.compare(sortKey.primaryOf(store, a), sortKey.primaryOf(store, b));
+        }
+        if (result == 0) {
+            result = Integer.compare(store.idAt(a), store.idAt(b));
+        }
+        return result != 0 ? result : Integer.compare(a, b);
+    }
+
+    // Данные для сортировки, снятые с хранилища под блокировкой чтения.
+    // Сама сортировка (sortedRows) хранилище не читает и идёт без блокировки,
+    // поэтому построение индекса по большому складу не останавливает запись
+    static class Draft {
+        private final long[] primaries;
+        private final int[] ids;
+
+        Draft(ProductSortKey sortKey, ProductColumns store) {
+            int count = store.size();
+            ids = new int[count];
+            primaries = new long[count];
+            int[] nameRanks = sortKey == ProductSortKey.NAME ? nameRanks(store) : null;
+            for (int row = 0; row < count; row++) {
+                ids[row] = store.idAt(row);
+                primaries[row] = nameRanks != null ? nameRanks[store.nameIdAt(row)] : sortKey.primaryOf(store, row);
+            }
+        }
+
+        int[] sortedRows() {
+            int[] sorted = new int[ids.length];
+            for (int row = 0; row < sorted.length; row++) {
+                sorted[row] = row;
+            }
+            sort(sorted, (a, b) -> {
+                int result = Long.compare(primaries[a], primaries[b]);
+                if (result == 0) {
+                    result = Integer.compare(ids[a], ids[b]);
+                }
+                return result != 0 ? result : Integer.compare(a, b);
+            });
+            return sorted;
+        }
+
+        // Место каждого названия в порядке сортировки: дальше строки сравниваются как числа
+        private static int[] nameRanks(ProductColumns store) {
+            Integer[] order = new Integer[store.nameCount()];
+            for (int nameId = 0; nameId < order.length; nameId++) {
+                order[nameId] = nameId;
+            }
+            Arrays.sort(order, (a, b) -> IndexKey.compareNames(store.name(a), store.name(b)));
+            int[] ranks = new int[order.length];
+            for (int i = 1; i < order.length; i++) {
+                boolean same = IndexKey.compareNames(store.name(order[i - 1]), store.name(order[i])) == 0;
+                ranks[order[i]] = same ? ranks[order[i - 1]] : i;
+            }
+            return ranks;
+        }
+    }
+
+    private interface RowOrder {
+        int compare(int a, int b);
+    }
+
+    // Сортировка слиянием массива номеров строк без упаковки в Integer
+    private static void sort(int[] values, RowOrder order) {
+        int[] buffer = new int[values.length];
+        for (int width = 1; width < values.length; width <<= 1) {
+            for (int from = 0; from < values.length - width; from += width << 1) {
+                int middle = from + width;
+                int to = Math.min(middle + width, values.length);
+                if (order.compare(values[middle - 1], values[middle]) <= 0) {
+                    continue;
+                }
+                System.arraycopy(values, from, buffer, from, to - from);
+                int i = from;
+                int j = middle;
+                for (int k = from; k < to; k++) {
+                    values[k] = j == to || (i < middle && order.compare(buffer[i], buffer[j]) <= 0)
+                            ? buffer[i++] : buffer[j++];
+                }
+            }
+        }
+    }
+
+    // Страница по id прямо по сохранённому в снимке индексу, без построения дерева.
+    // Курсор тот же, что у индекса ID, поэтому листание продолжается и после первой записи в склад
+    static ProductPage pageById(ProductSnapshot snapshot, String cursor, int pageSize) {
+        int position = 0;
+        if (cursor != null) {
+            IndexKey after = decode(ProductSortKey.ID, cursor);
+            position = snapshot.indexPositionAfter(after.id, after.row);
+        }
+        int end = (int) Math.min(snapshot.size(), (long) position + pageSize);
+        List<AbstractProduct> items = new ArrayList<>(Math.max(0, end - position));
+        for (int i = position; i < end; i++) {
+            items.add(snapshot.toProduct(snapshot.indexRowAt(i)));
+        }
+        if (end >= snapshot.size() || items.isEmpty()) {
+            return new ProductPage(items, null);
+        }
+        int lastRow = snapshot.indexRowAt(end - 1);
+        return new ProductPage(items, encode(ProductSortKey.ID, ProductSortKey.ID.keyOf(snapshot, lastRow)));
+    }
+
+    static String encode(ProductSortKey sortKey, IndexKey key) {
+        try (ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+             DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(sortKey.ordinal());
+            out.writeBoolean(key.name != null);
+            if (key.name != null) {
+                out.writeUTF(key.name);
+            }
+            out.writeLong(key.primary);
+            out.writeInt(key.id);
+            out.writeInt(key.row);
+            out.flush();
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static IndexKey decode(ProductSortKey sortKey, String cursor) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Base64.getUrlDecoder().decode(cursor)))) {
+            if (in.readByte() != sortKey.ordinal()) {
+                throw new IllegalArgumentException("Курсор относится к другой сортировке");
+            }
+            String name = in.readBoolean() ? in.readUTF() : null;
+            return new IndexKey(name, in.readLong(), in.readInt(), in.readInt());
+        } catch (IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Некорректный курсор: " + cursor, e);
+        }
+    }
+
+    // Значение сортировки, затем id, затем номер строки (различает товары с одинаковым id)
+    static class IndexKey implements Comparable<IndexKey> {
+        final String name;
+        final long primary;
+        final int id;
+        final int row;
+
+        IndexKey(String name, long primary, int id, int row) {
+            this.name = name;
+            this.primary = primary;
+            this.id = id;
+            this.row = row;
+        }
+
+        // Товар без названия идёт первым, затем без учёта регистра, при равенстве - с учётом
+        static int compareNames(String a, String b) {
+            if (a == b) {
+                return 0;
+            }
+            if (a == null || b == null) {
+                return a == null ? -1 : 1;
+            }
+            int result = String.CASE_INSENSITIVE_ORDER.compare(a, b);
+            return result != 0 ? result : a.compareTo(b);
+        }
+
+        @Override
+        public int compareTo(IndexKey other) {
+            // У ключей кроме NAME name всегда null
+            int byName = compareNames(name, other.name);
+            if (byName != 0) {
+                return byName;
+            }
+            int result = Long.compare(primary, other.primary);
+            if (result == 0) {
+                result = Integer.compare(id, other.id);
+            }
+            return result != 0 ? result : Integer.compare(row, other.row);
+        }
+    }
+}
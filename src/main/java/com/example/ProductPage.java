@@ -0,0 +1,27 @@
+package com.example;
+
+import java.util.Collections;
+import java.util.List;
+
+// Страница товаров; nextCursor == null, если дальше ничего нет
+public class ProductPage {
+    private final List<AbstractProduct> items;
+    private final String nextCursor;
+
+    public ProductPage(List<AbstractProduct> items, String nextCursor) {
+        this.items = Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<AbstractProduct> getItems() {
+        return items;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
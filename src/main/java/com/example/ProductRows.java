@@ -0,0 +1,89 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Пачка товаров в виде колонок с теми же полями, что у CompactProductStore.
+// Импорт CSV заполняет её прямо из разобранных байтов и передаёт складу (Warehouse.addRows)
+// без объектов продуктов. Пачка переиспользуется: получатель не должен хранить её после вызова
+final class ProductRows {
+    private byte[] kinds;
+    private int[] ids;
+    private String[] names;
+    private double[] prices;
+    private int[] quantities;
+    private int[] extras;
+    private int size;
+
+    ProductRows(int capacity) {
+        kinds = new byte[capacity];
+        ids = new int[capacity];
+        names = new String[capacity];
+        prices = new double[capacity];
+        quantities = new int[capacity];
+        extras = new int[capacity];
+    }
+
+    // kind и extra - как в CompactProductStore (FOOD/ELECTRONICS, epoch day или NO_DATE, месяцы гарантии)
+    void add(byte kind, int id, String name, double price, int quantity, int extra) {
+        if (size == ids.length) {
+            int capacity = Math.max(16, size + (size >> 1));
+            kinds = Arrays.copyOf(kinds, capacity);
+            ids = Arrays.copyOf(ids, capacity);
+            names = Arrays.copyOf(names, capacity);
+            prices = Arrays.copyOf(prices, capacity);
+            quantities = Arrays.copyOf(quantities, capacity);
+            extras = Arrays.copyOf(extras, capacity);
+        }
+        kinds[size] = kind;
+        ids[size] = id;
+        names[size] = name;
+        prices[size] = price;
+        quantities[size] = quantity;
+        extras[size] = extra;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        Arrays.fill(names, 0, size, null);
+        size = 0;
+    }
+
+    byte kindAt(int i) {
+        return kinds[i];
+    }
+
+    int idAt(int i) {
+        return ids[i];
+    }
+
+    String nameAt(int i) {
+        return names[i];
+    }
+
+    double priceAt(int i) {
+        return prices[i];
+    }
+
+    int quantityAt(int i) {
+        return quantities[i];
+    }
+
+    int extraAt(int i) {
+        return extras[i];
+    }
+
+    // Новые объекты продуктов для тех, кому нужен список
+    List<AbstractProduct> toProducts() {
+        List<AbstractProduct> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            products.add(CompactProductStore.newProduct(kinds[i], ids[i], names[i], prices[i], quantities[i], extras[i]));
+        }
+        return products;
+    }
+}
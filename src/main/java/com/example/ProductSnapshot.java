@@ -0,0 +1,276 @@
+package com.example;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+// Бинарный снимок склада, который открывается через отображение файла в память.
+// Открытие читает только заголовок, продукты создаются при первом обращении к строке и кэшируются.
+// Рядом с данными хранится готовый индекс по id (отсортированные пары id -> строка),
+// поэтому findById работает двоичным поиском прямо по файлу, ничего не перестраивая.
+// Склад читает снимок как ProductColumns, пока в него ничего не записали (см. Warehouse.loadData).
+//
+// Формат: заголовок | смещения названий | UTF-8 названий | колонки | индекс по id.
+// Отсутствующее название (null) записывается как ~смещение (отрицательное число) без байтов
+public class ProductSnapshot extends AbstractList<AbstractProduct> implements RandomAccess, ProductColumns {
+    private static final long MAGIC = 0x5748534E41503031L; // "WHSNAP01"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 8 + 4 + 4 + 4 + 4;
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int nameCount;
+    private final int nameOffsetsStart;
+    private final int nameDataStart;
+    private final int idsStart;
+    private final int nameIdsStart;
+    private final int pricesStart;
+    private final int quantitiesStart;
+    private final int kindsStart;
+    private final int extrasStart;
+    private final int indexIdsStart;
+    private final int indexRowsStart;
+    private final String[] names;
+    private final AbstractProduct[] materialized;
+
+    private ProductSnapshot(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer;
+        if (buffer.getLong(0) != MAGIC || buffer.getInt(8) != VERSION) {
+            throw new IOException("Файл не является снимком склада версии " + VERSION);
+        }
+        count = buffer.getInt(12);
+        nameCount = buffer.getInt(16);
+        int nameDataLength = buffer.getInt(20);
+        nameOffsetsStart = HEADER_BYTES;
+        nameDataStart = nameOffsetsStart + 4 * (nameCount + 1);
+        idsStart = nameDataStart + nameDataLength;
+        nameIdsStart = idsStart + 4 * count;
+        pricesStart = nameIdsStart + 4 * count;
+        quantitiesStart = pricesStart + 8 * count;
+        kindsStart = quantitiesStart + 4 * count;
+        extrasStart = kindsStart + count;
+        indexIdsStart = extrasStart + 4 * count;
+        indexRowsStart = indexIdsStart + 4 * count;
+        if (indexRowsStart + 4L * count != buffer.limit()) {
+            throw new IOException("Снимок склада повреждён: неожиданный размер файла");
+        }
+        names = new String[nameCount];
+        materialized = new AbstractProduct[count];
+    }
+
+    // Время открытия не зависит от размера каталога
+    public static ProductSnapshot open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Снимок больше 2 ГБ не поддерживается: " + path);
+            }
+            return new ProductSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    // Пишет во временный файл и атомарно подменяет старый снимок,
+    // чтобы уже открытые (отображённые) снимки оставались целыми
+    public static void write(List<AbstractProduct> products, Path path) throws IOException {
+        CompactProductStore store = CompactProductStore.readOnlyOf(products);
+        NamePool pool = store.getNames();
+        int count = store.size();
+
+        byte[][] encodedNames = new byte[pool.size()][];
+        int nameDataLength = 0;
+        for (int i = 0; i < encodedNames.length; i++) {
+            String name = pool.get(i);
+            if (name != null) {
+                encodedNames[i] = name.getBytes(StandardCharsets.UTF_8);
+                nameDataLength += encodedNames[i].length;
+            }
+        }
+
+        long[] index = new long[count];
+        CompactProductStore.View view = store.view();
+        for (int row = 0; row < count; row++) {
+            index[row] = ((long) view.at(row).getId() << 32) | row;
+        }
+        Arrays.sort(index);
+
+        Path absolute = path.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream file = Files.newOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+                out.writeLong(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                out.writeInt(encodedNames.length);
+                out.writeInt(nameDataLength);
+                int offset = 0;
+                for (byte[] name : encodedNames) {
+                    if (name == null) {
+                        out.writeInt(~offset);
+                    } else {
+                        out.writeInt(offset);
+                        offset += name.length;
+                    }
+                }
+                out.writeInt(offset);
+                for (byte[] name : encodedNames) {
+                    if (name != null) {
+                        out.write(name);
+                    }
+                }
+                for (int row = 0; row < count; row++) out.writeInt(view.at(row).getId());
+                for (int row = 0; row < count; row++) out.writeInt(store.nameIdAt(row));
+                for (int row = 0; row < count; row++) out.writeDouble(view.at(row).getPrice());
+                for (int row = 0; row < count; row++) out.writeInt(view.at(row).getQuantity());
+                for (int row = 0; row < count; row++) {
+                    out.writeByte(view.at(row).isFood() ? CompactProductStore.FOOD : CompactProductStore.ELECTRONICS);
+                }
+                for (int row = 0; row < count; row++) {
+                    view.at(row);
+                    out.writeInt(view.isFood() ? (int) view.getExpirationEpochDay() : view.getWarrantyMonths());
+                }
+                for (long entry : index) out.writeInt((int) (entry >> 32));
+                for (long entry : index) out.writeInt((int) entry);
+            }
+            Files.move(temp, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    @Override
+    public int size() {
+        return count;
+    }
+
+    @Override
+    public synchronized AbstractProduct get(int row) {
+        if (row < 0 || row >= count) {
+            throw new IndexOutOfBoundsException("Строка " + row + ", размер " + count);
+        }
+        AbstractProduct product = materialized[row];
+        if (product == null) {
+            product = materialize(row);
+            materialized[row] = product;
+        }
+        return product;
+    }
+
+    // Двоичный поиск по сохранённому индексу; null, если такого id нет
+    public AbstractProduct findById(int id) {
+        int row = findRow(id);
+        return row < 0 ? null : get(row);
+    }
+
+    // Первая строка с этим id по сохранённому индексу или -1
+    @Override
+    public int findRow(int id) {
+        int position = indexPositionAfter(id, -1);
+        return position < count && indexIdAt(position) == id ? indexRowAt(position) : -1;
+    }
+
+    // Позиция в индексе первой пары (id, строка), которая больше (id, row); индекс упорядочен по id, затем по строке
+    int indexPositionAfter(int id, int row) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int midId = indexIdAt(mid);
+            if (midId < id || midId == id && indexRowAt(mid) <= row) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    int indexIdAt(int position) {
+        return buffer.getInt(indexIdsStart + 4 * position);
+    }
+
+    int indexRowAt(int position) {
+        return buffer.getInt(indexRowsStart + 4 * position);
+    }
+
+    @Override
+    public int idAt(int row) {
+        return buffer.getInt(idsStart + 4 * row);
+    }
+
+    @Override
+    public int nameIdAt(int row) {
+        return buffer.getInt(nameIdsStart + 4 * row);
+    }
+
+    @Override
+    public double priceAt(int row) {
+        return buffer.getDouble(pricesStart + 8 * row);
+    }
+
+    @Override
+    public int quantityAt(int row) {
+        return buffer.getInt(quantitiesStart + 4 * row);
+    }
+
+    @Override
+    public byte kindAt(int row) {
+        return buffer.get(kindsStart + row);
+    }
+
+    @Override
+    public int extraAt(int row) {
+        return buffer.getInt(extrasStart + 4 * row);
+    }
+
+    @Override
+    public int nameCount() {
+        return nameCount;
+    }
+
+    // В отличие от get() не кэширует продукт: склад отдаёт наружу независимые копии
+    @Override
+    public AbstractProduct toProduct(int row) {
+        if (row < 0 || row >= count) {
+            throw new IndexOutOfBoundsException("Строка " + row + ", размер " + count);
+        }
+        return materialize(row);
+    }
+
+    private AbstractProduct materialize(int row) {
+        return CompactProductStore.newProduct(kindAt(row), idAt(row), nameAt(row), priceAt(row), quantityAt(row),
+                extraAt(row));
+    }
+
+    // Строка декодируется один раз; гонка двух потоков безопасна, обе строки одинаковые
+    @Override
+    public String name(int nameId) {
+        String name = names[nameId];
+        if (name == null) {
+            int start = buffer.getInt(nameOffsetsStart + 4 * nameId);
+            if (start < 0) {
+                return null;
+            }
+            int end = buffer.getInt(nameOffsetsStart + 4 * (nameId + 1));
+            if (end < 0) {
+                end = ~end;
+            }
+            byte[] bytes = new byte[end - start];
+            buffer.get(nameDataStart + start, bytes);
+            name = new String(bytes, StandardCharsets.UTF_8);
+            names[nameId] = name;
+        }
+        return name;
+    }
+}
@@ -0,0 +1,40 @@
+package com.example;
+
+// Порядок постраничного вывода товаров (Warehouse.listProducts)
+public enum ProductSortKey {
+    ID,
+    NAME,
+    PRICE,
+    VALUE,   // цена * количество
+    EXPIRY;  // сначала ближайший срок годности, товары без срока - в конце
+
+    ProductIndex.IndexKey keyOf(ProductColumns store, int row) {
+        String name = this == NAME ? store.nameAt(row) : null;
+        return new ProductIndex.IndexKey(name, primaryOf(store, row), store.idAt(row), row);
+    }
+
+    // Числовое значение сортировки; для NAME и ID - 0 (порядок задают название и id)
+    long primaryOf(ProductColumns store, int row) {
+        switch (this) {
+            case PRICE:
+                return sortableDouble(store.priceAt(row));
+            case VALUE:
+                return sortableDouble(store.priceAt(row) * store.quantityAt(row));
+            case EXPIRY:
+                return CompactProductStore.expirationDay(store.kindAt(row), store.extraAt(row));
+            default:
+                return 0;
+        }
+    }
+
+    // Порядок зависит от количества, поэтому индекс надо обновлять при его изменении
+    boolean dependsOnQuantity() {
+        return this == VALUE;
+    }
+
+    // double -> long с тем же порядком сравнения
+    private static long sortableDouble(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+}
@@ -0,0 +1,142 @@
+package com.example;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+// Ограниченный LRU-кэш результатов запросов к складу.
+// Каждый результат помнит версию склада, при которой был посчитан; при другой версии
+// запись считается устаревшей и пересчитывается, поэтому устаревший ответ не возвращается никогда.
+// Кроме числа записей ограничен их суммарный вес (длина массива, размер списка или карты, иначе 1):
+// один запрос с огромным результатом не держит память, результат тяжелее лимита не кэшируется
+public class QueryCache {
+    private final int capacity;
+    private final long maxWeight;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public QueryCache(int capacity) {
+        this(capacity, Long.MAX_VALUE);
+    }
+
+    public QueryCache(int capacity, long maxWeight) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity должен быть положительным: " + capacity);
+        }
+        if (maxWeight <= 0) {
+            throw new IllegalArgumentException("maxWeight должен быть положительным: " + maxWeight);
+        }
+        this.capacity = capacity;
+        this.maxWeight = maxWeight;
+    }
+
+    // Запрос вычисляется вне блокировки кэша, чтобы долгие запросы не мешали попаданиям
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, long version, Supplier<T> query) {
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.version == version) {
+                hits++;
+                return (T) entry.value;
+            }
+            misses++;
+        }
+        T value = query.get();
+        synchronized (this) {
+            Entry current = entries.get(key);
+            if (current == null || current.version <= version) {
+                Entry entry = new Entry(version, value);
+                if (entry.weight > maxWeight) {
+                    if (current != null) {
+                        entries.remove(key);
+                        weight -= current.weight;
+                    }
+                } else {
+                    Entry replaced = entries.put(key, entry);
+                    weight += entry.weight - (replaced != null ? replaced.weight : 0);
+                    evictOverLimit();
+                }
+            }
+        }
+        return value;
+    }
+
+    // Вытесняет давно не используемые записи, пока не уложимся в оба лимита
+    private void evictOverLimit() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while (entries.size() > capacity || weight > maxWeight) {
+            weight -= eldest.next().weight;
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "QueryCache{size=" + entries.size() + "/" + capacity + ", weight=" + weight + "/" + maxWeight + ", hits=" + hits + ", misses=" + misses
+                + ", evictions=" + evictions + '}';
+    }
+
+    private static class Entry {
+        final long version;
+        final Object value;
+        final long weight;
+
+        Entry(long version, Object value) {
+            this.version = version;
+            this.value = value;
+            this.weight = weightOf(value);
+        }
+
+        private static long weightOf(Object value) {
+            if (value instanceof int[]) {
+                return Math.max(1, ((int[]) value).length);
+            }
+            if (value instanceof Collection) {
+                return Math.max(1, ((Collection<?>) value).size());
+            }
+            if (value instanceof Map) {
+                return Math.max(1, ((Map<?, ?>) value).size());
+            }
+            return 1;
+        }
+    }
+}
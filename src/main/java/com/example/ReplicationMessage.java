@@ -0,0 +1,32 @@
+package com.example;
+
+import java.util.List;
+
+// Сообщение протокола репликации; передаётся одной строкой JSON
+class ReplicationMessage {
+    enum Kind {
+        HELLO,      // реплика -> первичный: с какого номера какого журнала продолжить, 0 - нужен снимок
+        SNAPSHOT,   // все товары на момент события sequence журнала logId
+        EVENTS,     // пачка событий журнала logId по порядку
+        HEARTBEAT   // ничего нового, только текущий номер первичного склада
+    }
+
+    Kind kind;
+    // Журнал, к которому относятся номера (WarehouseChangePublisher.getLogId); 0 - у реплики журнала нет
+    long logId;
+    long sequence;
+    long primarySequence;
+    long sentAt;
+    List<AbstractProduct> products;
+    List<WarehouseEvent> events;
+
+    static ReplicationMessage of(Kind kind, long logId, long sequence, long primarySequence) {
+        ReplicationMessage message = new ReplicationMessage();
+        message.kind = kind;
+        message.logId = logId;
+        message.sequence = sequence;
+        message.primarySequence = primarySequence;
+        message.sentAt = System.currentTimeMillis();
+        return message;
+    }
+}
@@ -0,0 +1,204 @@
+package com.example;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+// Первичный склад в режиме репликации: раздаёт журнал изменений по TCP.
+// Реплика присылает журнал и номер, с которого продолжить; если журнал другой (первичный склад
+// перезапущен или перезагружен), событий уже нет в буфере или реплика новая, сначала отправляется
+// снимок, затем события после него.
+// На каждое подключение свой поток отправки; новые пачки запрашиваются у потока изменений
+// только после записи предыдущих в сокет, поэтому медленная реплика тормозит только себя
+public class ReplicationPrimary implements AutoCloseable {
+    static final long HEARTBEAT_MILLIS = 1000;
+    private static final int IN_FLIGHT_BATCHES = 4;
+
+    private final Warehouse warehouse;
+    private final ServerSocket serverSocket;
+    private final Gson gson = JsonProductStorageStrategy.gsonBuilder().create();
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    public ReplicationPrimary(Warehouse warehouse, int port) throws IOException {
+        this(warehouse, new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+    }
+
+    public ReplicationPrimary(Warehouse warehouse, InetSocketAddress address) throws IOException {
+        this.warehouse = warehouse;
+        // Реплика, переподключившаяся после обрыва, продолжит журнал с места, а не со снимка
+        warehouse.getChangePublisher().retainEvents();
+        this.serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(address);
+        Thread acceptor = new Thread(this::acceptLoop, "replication-primary-" + getPort());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getReplicaCount() {
+        return connections.size();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.add(socket);
+                Thread sender = new Thread(() -> serve(socket), "replication-sender-" + socket.getPort());
+                sender.setDaemon(true);
+                sender.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Ошибка приёма реплики: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        BlockingQueue<Object> queue = new ArrayBlockingQueue<>(IN_FLIGHT_BATCHES + 1);
+        BatchSubscriber subscriber = new BatchSubscriber(queue);
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+             Writer out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+            socket.setTcpNoDelay(true);
+            ReplicationMessage hello = gson.fromJson(in.readLine(), ReplicationMessage.class);
+            if (hello == null || hello.kind != ReplicationMessage.Kind.HELLO) {
+                throw new IOException("Ожидалось приветствие реплики");
+            }
+
+            WarehouseChangePublisher publisher = warehouse.getChangePublisher();
+            long logId = hello.logId;
+            long from = hello.sequence;
+            if (from <= 0 || logId != publisher.getLogId()
+                    || from < publisher.getOldestRetainedSequence() || from > publisher.getLastSequence() + 1) {
+                List<AbstractProduct> products = new ArrayList<>();
+                WarehouseChangePublisher.LogPosition position = warehouse.snapshotTo(products);
+                ReplicationMessage snapshot = ReplicationMessage.of(ReplicationMessage.Kind.SNAPSHOT,
+                        position.getLogId(), position.getSequence(), position.getSequence());
+                snapshot.products = products;
+                send(out, snapshot);
+                logId = position.getLogId();
+                from = position.getSequence() + 1;
+            }
+            // Если журнал сменится после проверки, подписка завершится ошибкой и реплика переподключится
+            publisher.subscribe(subscriber, from, logId);
+
+            while (!closed) {
+                Object item = queue.poll(HEARTBEAT_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    long head = publisher.getLastSequence();
+                    send(out, ReplicationMessage.of(ReplicationMessage.Kind.HEARTBEAT, logId, head, head));
+                } else if (item instanceof Throwable) {
+                    throw new IOException("Поток изменений прерван", (Throwable) item);
+                } else {
+                    @SuppressWarnings("unchecked")
+                    List<WarehouseEvent> batch = (List<WarehouseEvent>) item;
+                    ReplicationMessage events = ReplicationMessage.of(ReplicationMessage.Kind.EVENTS, logId,
+                            batch.get(batch.size() - 1).getSequence(), publisher.getLastSequence());
+                    events.events = batch;
+                    send(out, events);
+                    subscriber.request();
+                }
+            }
+        } catch (SocketException e) {
+            // реплика отключилась
+        } catch (IOException | RuntimeException e) {
+            if (!closed) {
+                System.err.println("Ошибка репликации: " + e.getMessage());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscriber.cancel();
+            connections.remove(socket);
+        }
+    }
+
+    private void send(Writer out, ReplicationMessage message) throws IOException {
+        out.write(gson.toJson(message));
+        out.write('\n');
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+
+    // Передаёт пачки в очередь потока отправки; очередь никогда не переполняется,
+    // потому что запрошено не больше IN_FLIGHT_BATCHES пачек
+    private static class BatchSubscriber implements Flow.Subscriber<List<WarehouseEvent>> {
+        private final BlockingQueue<Object> queue;
+        private volatile Flow.Subscription subscription;
+        private volatile boolean cancelled;
+
+        BatchSubscriber(BlockingQueue<Object> queue) {
+            this.queue = queue;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (cancelled) {
+                subscription.cancel();
+            } else {
+                subscription.request(IN_FLIGHT_BATCHES);
+            }
+        }
+
+        @Override
+        public void onNext(List<WarehouseEvent> batch) {
+            queue.offer(batch);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            queue.offer(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            queue.offer(new IllegalStateException("Склад закрыт"));
+        }
+
+        void request() {
+            subscription.request(1);
+        }
+
+        void cancel() {
+            cancelled = true;
+            Flow.Subscription current = subscription;
+            if (current != null) {
+                current.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.example;
+
+import com.google.gson.Gson;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Реплика: получает журнал первичного склада и применяет его к своему Warehouse,
+// который обслуживает чтение как обычно. После обрыва переподключается и продолжает
+// с последнего применённого номера того же журнала (или получает новый снимок, если журнал
+// уже ушёл или первичный склад начал новый журнал после перезапуска или loadData)
+public class ReplicationReplica implements AutoCloseable {
+    static final long RECONNECT_DELAY_MILLIS = 500;
+
+    private final Warehouse warehouse;
+    private final InetSocketAddress primaryAddress;
+    private final Gson gson = JsonProductStorageStrategy.gsonBuilder().create();
+    private final Thread worker;
+    private volatile Socket socket;
+    private volatile boolean closed;
+
+    // Журнал первичного склада, к которому относится lastAppliedSequence; 0 - снимка ещё не было
+    private volatile long logId;
+    // Метрики
+    private volatile long lastAppliedSequence;
+    private volatile long primarySequence;
+    private volatile long applyDelayMillis;
+    private volatile long lastContactMillis;
+
+    public ReplicationReplica(Warehouse warehouse, InetSocketAddress primaryAddress) {
+        this.warehouse = warehouse;
+        this.primaryAddress = primaryAddress;
+        this.worker = new Thread(this::run, "replication-replica-" + primaryAddress.getPort());
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Warehouse getWarehouse() {
+        return warehouse;
+    }
+
+    public long getLogId() {
+        return logId;
+    }
+
+    public long getLastAppliedSequence() {
+        return lastAppliedSequence;
+    }
+
+    // Последний известный номер первичного склада
+    public long getPrimarySequence() {
+        return primarySequence;
+    }
+
+    // Отставание в событиях
+    public long getLagEvents() {
+        return Math.max(0, primarySequence - lastAppliedSequence);
+    }
+
+    // Сколько миллисекунд прошло от изменения на первичном складе до применения последнего события
+    public long getApplyDelayMillis() {
+        return applyDelayMillis;
+    }
+
+    public long getMillisSinceLastContact() {
+        return lastContactMillis == 0 ? -1 : System.currentTimeMillis() - lastContactMillis;
+    }
+
+    private void run() {
+        while (!closed) {
+            try (Socket connection = new Socket()) {
+                socket = connection;
+                connection.connect(primaryAddress);
+                connection.setTcpNoDelay(true);
+                replicate(connection);
+            } catch (IOException | RuntimeException e) {
+                if (!closed) {
+                    System.err.println("Репликация прервана: " + e.getMessage());
+                }
+            }
+            if (!closed) {
+                try {
+                    Thread.sleep(RECONNECT_DELAY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void replicate(Socket connection) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(connection.getInputStream(), StandardCharsets.UTF_8));
+        Writer out = new OutputStreamWriter(connection.getOutputStream(), StandardCharsets.UTF_8);
+        long from = logId == 0 ? 0 : lastAppliedSequence + 1;
+        out.write(gson.toJson(ReplicationMessage.of(ReplicationMessage.Kind.HELLO, logId, from, 0)));
+        out.write('\n');
+        out.flush();
+
+        String line;
+        while (!closed && (line = in.readLine()) != null) {
+            ReplicationMessage message = gson.fromJson(line, ReplicationMessage.class);
+            lastContactMillis = System.currentTimeMillis();
+            if (message.kind != ReplicationMessage.Kind.SNAPSHOT && message.logId != logId) {
+                throw new IOException("Сообщение из другого журнала первичного склада, нужен новый снимок");
+            }
+            switch (message.kind) {
+                case SNAPSHOT:
+                    warehouse.replaceAll(message.products);
+                    lastAppliedSequence = message.sequence;
+                    logId = message.logId;
+                    // Новый журнал нумеруется заново: прежний номер первичного склада к нему не относится
+                    primarySequence = message.primarySequence;
+                    break;
+                case EVENTS:
+                    apply(message);
+                    break;
+                case HEARTBEAT:
+                    break;
+                default:
+                    throw new IOException("Неожиданное сообщение: " + message.kind);
+            }
+            primarySequence = Math.max(primarySequence, message.primarySequence);
+        }
+    }
+
+    // Первичный склад не делит группу событий между пачками, поэтому пачка применяется целиком за один шаг
+    private void apply(ReplicationMessage message) throws IOException {
+        List<WarehouseEvent> fresh = new ArrayList<>(message.events.size());
+        long expected = lastAppliedSequence + 1;
+        for (WarehouseEvent event : message.events) {
+            if (event.getSequence() < expected) {
+                continue; // уже применено до переподключения
+            }
+            if (event.getSequence() != expected) {
+                throw new IOException("Пропуск в журнале: ожидалось " + expected + ", получено " + event.getSequence());
+            }
+            fresh.add(event);
+            expected++;
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        warehouse.applyEvents(fresh);
+        WarehouseEvent last = fresh.get(fresh.size() - 1);
+        lastAppliedSequence = last.getSequence();
+        applyDelayMillis = System.currentTimeMillis() - last.getTimestamp();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        worker.interrupt();
+        Socket current = socket;
+        if (current != null) {
+            current.close();
+        }
+    }
+}
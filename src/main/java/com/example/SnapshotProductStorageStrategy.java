@@ -0,0 +1,40 @@
+package com.example;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+// Хранение в бинарном снимке: load только отображает файл и сразу возвращает ленивый список.
+// Файла ещё нет - склад пустой, снимок появится при первом сохранении.
+// С legacyJsonPath снимка нет, а JSON старой версии есть: JSON читается один раз и сразу
+// сохраняется снимком, дальше склад работает только со снимком (JSON не удаляется)
+public class SnapshotProductStorageStrategy implements ProductStorageStrategy {
+    private final String legacyJsonPath;
+
+    public SnapshotProductStorageStrategy() {
+        this(null);
+    }
+
+    public SnapshotProductStorageStrategy(String legacyJsonPath) {
+        this.legacyJsonPath = legacyJsonPath;
+    }
+
+    @Override
+    public void save(List<AbstractProduct> products, String filePath) throws Exception {
+        ProductSnapshot.write(products, Path.of(filePath));
+    }
+
+    @Override
+    public List<AbstractProduct> load(String filePath) throws Exception {
+        Path path = Path.of(filePath);
+        if (!Files.exists(path)) {
+            if (legacyJsonPath == null || !Files.exists(Path.of(legacyJsonPath))) {
+                return Collections.emptyList();
+            }
+            ProductSnapshot.write(new JsonProductStorageStrategy().load(legacyJsonPath), path);
+            System.out.println("Данные из " + legacyJsonPath + " перенесены в снимок " + filePath);
+        }
+        return ProductSnapshot.open(path);
+    }
+}
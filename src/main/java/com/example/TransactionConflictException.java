@@ -0,0 +1,17 @@
+package com.example;
+
+// Товар, который транзакция уже видела, изменился до её фиксации; транзакцию можно повторить
+public class TransactionConflictException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int productId;
+
+    public TransactionConflictException(int productId) {
+        super("Конфликт транзакции: товар с id " + productId + " изменён другой операцией");
+        this.productId = productId;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+}
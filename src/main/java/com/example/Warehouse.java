@@ -2,109 +2,765 @@ package com.example;
 
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Executors;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
 
 public class Warehouse {
+    // С какого размера склада агрегаты считаются параллельно (fork-join)
+    static final int PARALLEL_AGGREGATION_THRESHOLD = 10_000;
+    // Изменения, сделанные за это время, сохраняются одной записью
+    static final long SAVE_DELAY_MILLIS = 200;
+    static final int QUERY_CACHE_SIZE = 256;
+    // Суммарно строк в закэшированных результатах поиска (номер строки - 4 байта)
+    static final long QUERY_CACHE_MAX_ROWS = 1_000_000;
+    // Сколько последних изменённых SKU помнить для проверки конфликтов транзакций
+    static final int SKU_VERSIONS_LIMIT = 65_536;
+    // С какого размера пачки addProducts индексы сортировки обновляются слиянием, а не вставкой по одной
+    static final int INDEX_MERGE_THRESHOLD = 64;
+    static final String DEFAULT_SNAPSHOT_FILE = "warehouse.snapshot";
+    static final String DEFAULT_JSON_FILE = "warehouse.json";
+
     private static Warehouse instance;
-    private final List<AbstractProduct> products = new ArrayList<>();
-    private final ProductStorageStrategy storageStrategy = new JsonProductStorageStrategy();
-    private final String filePath = "warehouse.json";
-    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+    // Товары хранятся колонками; AbstractProduct создаются только для результатов запросов.
+    // После загрузки снимка здесь лежит сам отображённый ProductSnapshot, при первой записи
+    // он копируется в CompactProductStore (см. writableStore)
+    private ProductColumns columns = new CompactProductStore();
+    private final ProductStorageStrategy storageStrategy;
+    private final String filePath;
+    private final ScheduledExecutorService scheduler;
+    private final ScheduledFuture<?> expirationTask;
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    // Пока больше нуля, изменения не сохраняются, а только отмечаются в saveDeferred (см. suspendSaves)
+    private final AtomicInteger savesSuspended = new AtomicInteger();
+    private final AtomicBoolean saveDeferred = new AtomicBoolean();
+    private final Object saveLock = new Object();
+    // Запланированное отложенное сохранение; shutdown отменяет его, и после shutdown новые не планируются
+    private volatile ScheduledFuture<?> saveTask;
+    private volatile boolean shutDown;
+    // Список читают GUI, фоновая проверка сроков и подписчики, поэтому все обращения идут через блокировку
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final WarehouseChangePublisher changePublisher = new WarehouseChangePublisher();
+    // События текущего изменения; публикуются одной группой в markChanged
+    private final List<WarehouseEvent> pendingEvents = new ArrayList<>();
+    // Меняется только под блокировкой записи
+    private volatile long version;
+    private final QueryCache queryCache = new QueryCache(QUERY_CACHE_SIZE, QUERY_CACHE_MAX_ROWS);
+    // Версия склада, при которой товар с этим id менялся последний раз (проверка конфликтов транзакций).
+    // После полной замены содержимого все товары считаются изменёнными не раньше skuVersionFloor.
+    // Карта хранит не больше SKU_VERSIONS_LIMIT записей: при переполнении она очищается, а floor
+    // поднимается до текущей версии (транзакция, начатая до этого, получит конфликт и повторится)
+    private final Map<Integer, Long> skuVersions = new HashMap<>();
+    private long skuVersionFloor;
+    // Отсортированные индексы для listProducts; строятся при первом запросе по ключу
+    // и дальше поддерживаются при каждом изменении
+    private final Map<ProductSortKey, ProductIndex> sortIndexes = new EnumMap<>(ProductSortKey.class);
+
+    public Warehouse(String filePath, ProductStorageStrategy storageStrategy) {
+        this(filePath, storageStrategy, WarehouseScheduler.shared());
+    }
 
-    private Warehouse() {
-        startExpirationChecker();
+    // Склады независимы друг от друга; фоновые задачи выполняются на переданном планировщике
+    public Warehouse(String filePath, ProductStorageStrategy storageStrategy, ScheduledExecutorService scheduler) {
+        this.filePath = filePath;
+        this.storageStrategy = storageStrategy;
+        this.scheduler = scheduler;
+        this.expirationTask = startExpirationChecker();
     }
 
-    public static Warehouse getInstance() {
+    // Склад по умолчанию для GUI: бинарный снимок открывается без разбора файла.
+    // warehouse.json старых версий при первой загрузке переносится в снимок
+    public static synchronized Warehouse getInstance() {
         if (instance == null) {
-            instance = new Warehouse();
+            instance = new Warehouse(DEFAULT_SNAPSHOT_FILE, new SnapshotProductStorageStrategy(DEFAULT_JSON_FILE));
         }
         return instance;
     }
 
+    public String getFilePath() {
+        return filePath;
+    }
+
     public void addProduct(AbstractProduct product) {
-        products.add(product);
-        //дебаг вывод
-       // System.out.println("Добавлен продукт. Текущий размер списка: " + products.size()
-         //       + " | isTestMode = " + isTestMode);
-        saveData();
+        CompactProductStore.checkStorable(product);
+        lock.writeLock().lock();
+        try {
+            applyAdd(product);
+            //дебаг вывод
+           // System.out.println("Добавлен продукт. Текущий размер списка: " + products.size()
+             //       + " | isTestMode = " + isTestMode);
+            markChanged();
+        } finally {
+            discardUnpublished();
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Пакетное добавление: одна блокировка и одно сохранение на всю пачку (например, импорт CSV).
+    // Пачка проверяется целиком до записи: при ошибке склад не меняется
+    public void addProducts(List<AbstractProduct> batch) {
+        batch.forEach(CompactProductStore::checkStorable);
+        addBatch(batch.size(), i -> applyAdd(batch.get(i)));
+    }
+
+    // То же для пачки колонок (импорт CSV): строки и события создаются из полей, без объектов продуктов.
+    // Тип и extra в ProductRows уже в формате хранилища, проверять нечего
+    void addRows(ProductRows rows) {
+        addBatch(rows.size(), i -> applyAdd(rows, i));
+    }
+
+    private void addBatch(int count, IntConsumer addOne) {
+        lock.writeLock().lock();
+        try {
+            if (count == 0) {
+                markChanged();
+                return;
+            }
+            CompactProductStore store = writableStore();
+            int firstRow = store.size();
+            store.ensureCapacity(firstRow + count);
+            // Большая пачка вливается в индексы сортировки одним слиянием после добавления
+            Map<ProductSortKey, ProductIndex> merged = new EnumMap<>(ProductSortKey.class);
+            if (count > INDEX_MERGE_THRESHOLD) {
+                merged.putAll(sortIndexes);
+                sortIndexes.clear();
+            }
+            for (int i = 0; i < count; i++) {
+                addOne.accept(i);
+            }
+            for (ProductIndex index : merged.values()) {
+                index.addRows(firstRow, store.size());
+            }
+            sortIndexes.putAll(merged);
+            markChanged();
+        } finally {
+            discardUnpublished();
+            lock.writeLock().unlock();
+        }
     }
 
     public void removeProduct(int id) {
-        products.removeIf(p -> p.getId() == id);
-        saveData();
+        lock.writeLock().lock();
+        try {
+            applyRemove(id);
+            markChanged();
+        } finally {
+            discardUnpublished();
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Несуществующий id игнорируется, как и в removeProduct
+    public void updateQuantity(int id, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Количество не может быть отрицательным: " + quantity);
+        }
+        lock.writeLock().lock();
+        try {
+            applyQuantity(id, quantity);
+            markChanged();
+        } finally {
+            discardUnpublished();
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Применение событий другого склада (реплика): вся пачка под одной блокировкой записи
+    // и одним увеличением версии, поэтому читатели не видят половину транзакции первичного склада
+    void applyEvents(List<WarehouseEvent> events) {
+        lock.writeLock().lock();
+        try {
+            for (WarehouseEvent event : events) {
+                switch (event.getType()) {
+                    case ADDED:
+                        applyAdd(event.getProduct());
+                        break;
+                    case REMOVED:
+                        applyRemove(event.getProductId());
+                        break;
+                    case QUANTITY_CHANGED:
+                        applyQuantity(event.getProductId(), event.getQuantity());
+                        break;
+                }
+            }
+            markChanged();
+        } finally {
+            discardUnpublished();
+            lock.writeLock().unlock();
+        }
     }
 
+    // Транзакция: несколько операций, которые проверяются и применяются вместе (см. WarehouseTransaction)
+    public WarehouseTransaction beginTransaction() {
+        return new WarehouseTransaction(this);
+    }
+
+    long getSkuVersion(int id) {
+        lock.readLock().lock();
+        try {
+            return skuVersionLocked(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Всё под одной блокировкой записи: читатели видят либо все операции, либо ни одной,
+    // версия растёт один раз и сохранение одно. Конфликт - если товар, который транзакция
+    // уже видела, с тех пор изменился; транзакции на разных товарах друг другу не мешают
+    void commit(List<WarehouseTransaction.Operation> operations, Map<Integer, Long> readVersions) {
+        lock.writeLock().lock();
+        try {
+            for (Map.Entry<Integer, Long> read : readVersions.entrySet()) {
+                if (skuVersionLocked(read.getKey()) != read.getValue()) {
+                    throw new TransactionConflictException(read.getKey());
+                }
+            }
+            int[] resolved = validate(operations, readVersions.keySet());
+            for (int i = 0; i < operations.size(); i++) {
+                WarehouseTransaction.Operation op = operations.get(i);
+                switch (op.getType()) {
+                    case ADD:
+                        applyAdd(op.getProduct());
+                        break;
+                    case REMOVE:
+                        applyRemove(op.getId());
+                        break;
+                    case SET_QUANTITY:
+                    case ADJUST_QUANTITY:
+                        applyQuantity(op.getId(), resolved[i]);
+                        break;
+                }
+            }
+            markChanged();
+        } finally {
+            discardUnpublished();
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Проигрывает операции на текущих количествах затронутых товаров, ничего не меняя;
+    // добавляемые продукты проверяются здесь же, чтобы применение не оборвалось на середине.
+    // Возвращает итоговое количество для операций с количеством
+    private int[] validate(List<WarehouseTransaction.Operation> operations, Set<Integer> touched) {
+        Map<Integer, Integer> quantities = new HashMap<>();
+        for (int id : touched) {
+            int row = columns.findRow(id);
+            if (row >= 0) {
+                quantities.put(id, columns.quantityAt(row));
+            }
+        }
+        int[] resolved = new int[operations.size()];
+        for (int i = 0; i < operations.size(); i++) {
+            WarehouseTransaction.Operation op = operations.get(i);
+            Integer current = quantities.get(op.getId());
+            if (op.getType() == WarehouseTransaction.Operation.Type.ADD) {
+                CompactProductStore.checkStorable(op.getProduct());
+                quantities.put(op.getId(), op.getProduct().getQuantity());
+                continue;
+            }
+            if (current == null) {
+                throw new IllegalStateException("Товар с id " + op.getId() + " не найден");
+            }
+            switch (op.getType()) {
+                case REMOVE:
+                    quantities.remove(op.getId());
+                    break;
+                case SET_QUANTITY:
+                    resolved[i] = op.getAmount();
+                    quantities.put(op.getId(), resolved[i]);
+                    break;
+                case ADJUST_QUANTITY:
+                    long result = (long) current + op.getAmount();
+                    if (result < 0 || result > Integer.MAX_VALUE) {
+                        throw new IllegalStateException("Недопустимое количество для id " + op.getId() + ": " + result);
+                    }
+                    resolved[i] = (int) result;
+                    quantities.put(op.getId(), resolved[i]);
+                    break;
+                default:
+                    break;
+            }
+        }
+        return resolved;
+    }
+
+    // Возвращаются копии: изменения полученных объектов склад не меняют
     public List<AbstractProduct> getAllProducts() {
-        return new ArrayList<>(products);
+        lock.readLock().lock();
+        try {
+            List<AbstractProduct> products = new ArrayList<>(columns.size());
+            copyProductsTo(products);
+            return products;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Поиск по id; у снимка - двоичный поиск по его сохранённому индексу
+    public AbstractProduct findById(int id) {
+        lock.readLock().lock();
+        try {
+            int row = columns.findRow(id);
+            return row < 0 ? null : columns.toProduct(row);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int getProductCount() {
+        lock.readLock().lock();
+        try {
+            return columns.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Копия колонок склада (без объектов продуктов), например для больших выгрузок и оценки памяти
+    public CompactProductStore toCompactStore() {
+        lock.readLock().lock();
+        try {
+            return columns instanceof CompactProductStore
+                    ? ((CompactProductStore) columns).copy()
+                    : CompactProductStore.copyOf(columns);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
-    // Streams: Поиск по имени
+    // Поток изменений: добавления, удаления и смена количества с порядковыми номерами.
+    // Вместо опроса getAllProducts() подписчик получает только изменения
+    public WarehouseChangePublisher getChangePublisher() {
+        return changePublisher;
+    }
+
+    // Поиск по имени: каждое название из пула проверяется один раз, а не для каждого товара.
+    // В кэше только номера строк, товары создаются заново на каждый вызов
     public List<AbstractProduct> searchByName(String name) {
-        return products.stream()
-                .filter(p -> p.getName().toLowerCase().contains(name.toLowerCase()))
-                .collect(Collectors.toList());
+        String term = name.toLowerCase();
+        return cached("search:" + term, () -> {
+            byte[] matches = new byte[columns.nameCount()]; // 0 - не проверено, 1 - подходит, 2 - нет
+            IntStream.Builder found = IntStream.builder();
+            for (int row = 0; row < columns.size(); row++) {
+                int nameId = columns.nameIdAt(row);
+                if (matches[nameId] == 0) {
+                    String candidate = columns.name(nameId);
+                    matches[nameId] = candidate != null && candidate.toLowerCase().contains(term) ? (byte) 1 : 2;
+                }
+                if (matches[nameId] == 1) {
+                    found.add(row);
+                }
+            }
+            return found.build().toArray();
+        }, this::productsAt);
     }
 
-    // Streams: Аналитика - общая стоимость товаров
+    // Аналитика - общая стоимость товаров
     public double getTotalValue() {
-        return products.stream()
-                .mapToDouble(p -> p.getPrice() * p.getQuantity())
-                .sum();
+        return cached("totalValue", () -> {
+            double total = 0;
+            for (int row = 0; row < columns.size(); row++) {
+                total += columns.priceAt(row) * columns.quantityAt(row);
+            }
+            return total;
+        });
     }
 
-    // Streams: Аналитика - количество по типам
+    // Аналитика - количество по типам
     public Map<String, Long> getProductTypeCounts() {
-        return products.stream()
-                .collect(Collectors.groupingBy(p -> p.getClass().getSimpleName(), Collectors.counting()));
+        return new HashMap<>(cached("typeCounts", () -> {
+            long[] counts = new long[2];
+            for (int row = 0; row < columns.size(); row++) {
+                counts[columns.kindAt(row)]++;
+            }
+            Map<String, Long> result = new HashMap<>();
+            for (byte kind = 0; kind < counts.length; kind++) {
+                if (counts[kind] > 0) {
+                    result.put(CompactProductStore.typeName(kind), counts[kind]);
+                }
+            }
+            return result;
+        }));
     }
 
-    // Streams: Фильтрация просроченных продуктов
+    // Аналитика - все агрегаты по типам за один проход по колонкам.
+    // На больших складах проход параллельный: каждый поток копит свои агрегаты, потом они сливаются
+    public Map<String, ProductAggregate> getAggregatesByType() {
+        return new HashMap<>(cached("aggregates", () -> {
+            ProductColumns current = columns;
+            IntStream rows = IntStream.range(0, current.size());
+            if (current.size() >= PARALLEL_AGGREGATION_THRESHOLD) {
+                rows = rows.parallel();
+            }
+            ProductAggregate[] byKind = rows.collect(
+                    () -> new ProductAggregate[]{new ProductAggregate(), new ProductAggregate()},
+                    (acc, row) -> {
+                        byte kind = current.kindAt(row);
+                        acc[kind].accept(current.priceAt(row), current.quantityAt(row),
+                                CompactProductStore.expirationDay(kind, current.extraAt(row)));
+                    },
+                    (left, right) -> {
+                        left[0].combine(right[0]);
+                        left[1].combine(right[1]);
+                    });
+            Map<String, ProductAggregate> result = new HashMap<>();
+            for (byte kind = 0; kind < byKind.length; kind++) {
+                if (byKind[kind].getCount() > 0) {
+                    result.put(CompactProductStore.typeName(kind), byKind[kind]);
+                }
+            }
+            return result;
+        }));
+    }
+
+    // Фильтрация просроченных продуктов; объекты создаются только для найденных и на каждый вызов свои
     public List<FoodProduct> getExpiredFoodProducts() {
         LocalDate now = LocalDate.now();
-        return products.stream()
-                .filter(p -> p instanceof FoodProduct)
-                .map(p -> (FoodProduct) p)
-                .filter(fp -> fp.getExpirationDate().isBefore(now))
-                .collect(Collectors.toList());
+        long today = now.toEpochDay();
+        return cached("expired:" + now, () -> {
+            IntStream.Builder expired = IntStream.builder();
+            for (int row = 0; row < columns.size(); row++) {
+                if (CompactProductStore.expirationDay(columns.kindAt(row), columns.extraAt(row)) < today) {
+                    expired.add(row);
+                }
+            }
+            return expired.build().toArray();
+        }, rows -> {
+            List<FoodProduct> products = new ArrayList<>(rows.length);
+            for (int row : rows) {
+                products.add((FoodProduct) columns.toProduct(row));
+            }
+            return products;
+        });
     }
 
+    // Постраничный вывод в порядке sortKey. cursor - значение getNextCursor() предыдущей страницы
+    // (null для первой); следующая страница продолжается после последнего показанного товара,
+    // поэтому добавления и удаления между запросами не дают ни пропусков, ни повторов
+    public ProductPage listProducts(ProductSortKey sortKey, int pageSize, String cursor) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("pageSize должен быть положительным: " + pageSize);
+        }
+        ProductIndex.Draft draft;
+        long draftVersion;
+        lock.readLock().lock();
+        try {
+            ProductIndex index = sortIndexes.get(sortKey);
+            if (index != null) {
+                return index.page(cursor, pageSize);
+            }
+            if (sortKey == ProductSortKey.ID && columns instanceof ProductSnapshot) {
+                return ProductIndex.pageById((ProductSnapshot) columns, cursor, pageSize);
+            }
+            draft = new ProductIndex.Draft(sortKey, columns);
+            draftVersion = version;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // Сортировка - самая долгая часть построения, она идёт без блокировки
+        int[] sortedRows = draft.sortedRows();
+        lock.writeLock().lock();
+        try {
+            ProductIndex index = sortIndexes.get(sortKey);
+            if (index == null) {
+                // Склад изменился, пока шла сортировка: строки могли сдвинуться, строим заново
+                index = version == draftVersion
+                        ? new ProductIndex(sortKey, columns, sortedRows)
+                        : ProductIndex.build(sortKey, columns);
+                sortIndexes.put(sortKey, index);
+            }
+            return index.page(cursor, pageSize);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // Версия растёт при каждом изменении через методы склада; по ней кэш отличает свежие результаты
+    public long getVersion() {
+        return version;
+    }
+
+    public QueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    // Запрос под блокировкой чтения: версия не может измениться, пока он считается.
+    // Кэш хранит общий результат, поэтому наружу отдаются копии списков и карт
+    private <T> T cached(String key, Supplier<T> query) {
+        return cached(key, query, Function.identity());
+    }
+
+    // Кэшируется неизменяемый результат (номера строк), наружу отдаётся свежий объект из него.
+    // Номера строк действительны, пока версия та же, поэтому toResult вызывается под той же блокировкой
+    private <T, R> R cached(String key, Supplier<T> query, Function<T, R> toResult) {
+        lock.readLock().lock();
+        try {
+            return toResult.apply(queryCache.get(key, version, query));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Вызывается под блокировкой чтения
+    private List<AbstractProduct> productsAt(int[] rows) {
+        List<AbstractProduct> products = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            products.add(columns.toProduct(row));
+        }
+        return products;
+    }
+
+    // Загрузка заменяет содержимое целиком и событий не порождает:
+    // подписчикам нужно перечитать getAllProducts() и подписаться заново (журнал получает новый logId).
+    // Снимок не копируется: чтение, поиск по id и листание по id идут прямо по файлу,
+    // в память он переносится только при первой записи. Остальные форматы сразу переводятся в колонки
     public void loadData() {
         try {
             List<AbstractProduct> loaded = storageStrategy.load(filePath);
-            products.clear();
-            products.addAll(loaded);
+            ProductColumns data = loaded instanceof ProductSnapshot
+                    ? (ProductSnapshot) loaded
+                    : CompactProductStore.of(loaded);
+            lock.writeLock().lock();
+            try {
+                columns = data;
+                sortIndexes.clear();
+                changePublisher.startNewLog();
+                version++;
+                skuVersions.clear();
+                skuVersionFloor = version;
+            } finally {
+                lock.writeLock().unlock();
+            }
         } catch (Exception e) {
             System.err.println("Ошибка загрузки данных: " + e.getMessage());
             e.printStackTrace();  //дебаг
         }
     }
 
+    // Склад ещё читает загруженный снимок, ничего не копируя
+    boolean isReadingSnapshot() {
+        lock.readLock().lock();
+        try {
+            return columns instanceof ProductSnapshot;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Вызывается под блокировкой записи перед изменением строк
+    private CompactProductStore writableStore() {
+        if (!(columns instanceof CompactProductStore)) {
+            columns = CompactProductStore.copyOf(columns);
+            sortIndexes.clear();
+        }
+        return (CompactProductStore) columns;
+    }
+
+    private void copyProductsTo(List<AbstractProduct> target) {
+        for (int row = 0; row < columns.size(); row++) {
+            target.add(columns.toProduct(row));
+        }
+    }
+
+    // Копия товаров вместе с местом в журнале, согласованные между собой (для реплик)
+    WarehouseChangePublisher.LogPosition snapshotTo(List<AbstractProduct> target) {
+        lock.readLock().lock();
+        try {
+            copyProductsTo(target);
+            return changePublisher.getPosition();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // Полная замена содержимого без событий, как loadData (реплика принимает снимок первичного склада).
+    // Журнал начинается заново: реплики этого склада получат новый снимок
+    void replaceAll(List<AbstractProduct> newProducts) {
+        lock.writeLock().lock();
+        try {
+            columns = CompactProductStore.of(newProducts);
+            sortIndexes.clear();
+            changePublisher.startNewLog();
+            skuVersions.clear();
+            skuVersionFloor = version + 1;
+            markChanged();
+        } finally {
+            discardUnpublished();
+            lock.writeLock().unlock();
+        }
+    }
+
     //для теста private boolean isTestMode = false;
 
     // public void setTestMode(boolean testMode) {
     //    this.isTestMode = testMode;
     //}
 
+    // Изменения одного товара; вызываются под блокировкой записи, версия будет увеличена в markChanged.
+    // Индексы сортировки: remove до изменения строки (ключ считается по её значениям), add после
+    private void applyAdd(AbstractProduct product) {
+        int row = writableStore().add(product);
+        addedRow(row, product.getId());
+        pendingEvents.add(new WarehouseEvent(WarehouseEvent.Type.ADDED, product.getId(), product, product.getQuantity()));
+    }
+
+    private void applyAdd(ProductRows rows, int i) {
+        int row = writableStore().add(rows.kindAt(i), rows.idAt(i), rows.nameAt(i), rows.priceAt(i),
+                rows.quantityAt(i), rows.extraAt(i));
+        addedRow(row, rows.idAt(i));
+        pendingEvents.add(new WarehouseEvent(rows.idAt(i), rows.kindAt(i), rows.nameAt(i), rows.priceAt(i),
+                rows.quantityAt(i), rows.extraAt(i)));
+    }
+
+    private void addedRow(int row, int id) {
+        for (ProductIndex index : sortIndexes.values()) {
+            index.add(row);
+        }
+        skuVersions.put(id, version + 1);
+    }
+
+    private void applyRemove(int id) {
+        if (columns.findRow(id) < 0) {
+            return;
+        }
+        CompactProductStore store = writableStore();
+        for (int row = store.findRow(id); row >= 0; row = store.findRow(id)) {
+            // На место удалённой строки переносится последняя: в индексах она займёт номер row
+            int last = store.size() - 1;
+            for (ProductIndex index : sortIndexes.values()) {
+                index.remove(row);
+                if (last != row) {
+                    index.remove(last);
+                }
+            }
+            if (store.remove(row) >= 0) {
+                for (ProductIndex index : sortIndexes.values()) {
+                    index.add(row);
+                }
+            }
+            skuVersions.put(id, version + 1);
+            pendingEvents.add(new WarehouseEvent(WarehouseEvent.Type.REMOVED, id, null, 0));
+        }
+    }
+
+    private void applyQuantity(int id, int quantity) {
+        if (columns.findRow(id) < 0) {
+            return;
+        }
+        CompactProductStore store = writableStore();
+        for (int row = store.findRow(id); row >= 0; row = store.nextRowWithSameId(row)) {
+            for (ProductIndex index : sortIndexes.values()) {
+                if (index.getSortKey().dependsOnQuantity()) {
+                    index.remove(row);
+                }
+            }
+            store.setQuantity(row, quantity);
+            for (ProductIndex index : sortIndexes.values()) {
+                if (index.getSortKey().dependsOnQuantity()) {
+                    index.add(row);
+                }
+            }
+            skuVersions.put(id, version + 1);
+            pendingEvents.add(new WarehouseEvent(WarehouseEvent.Type.QUANTITY_CHANGED, id, null, quantity));
+        }
+    }
+
+    private long skuVersionLocked(int id) {
+        return Math.max(skuVersions.getOrDefault(id, 0L), skuVersionFloor);
+    }
+
+    // Вызывается под блокировкой записи после любого изменения.
+    // События изменения уходят подписчикам одной группой: реплика применяет её целиком
+    private void markChanged() {
+        version++;
+        changePublisher.publishGroup(pendingEvents);
+        pendingEvents.clear();
+        if (skuVersions.size() > SKU_VERSIONS_LIMIT) {
+            skuVersions.clear();
+            skuVersionFloor = version;
+        }
+        saveData();
+    }
+
+    // Изменение оборвалось исключением после части применённых строк (проверки этого не допускают,
+    // это страховка): его события не публикуются и не уходят со следующим изменением,
+    // а версия растёт, чтобы кэш не отдал результат, посчитанный до изменения
+    private void discardUnpublished() {
+        if (!pendingEvents.isEmpty()) {
+            pendingEvents.clear();
+            version++;
+        }
+    }
+
+    // Сохранение откладывается на общий планировщик: серия изменений даёт одну запись в файл
     private void saveData() {
         //if (isTestMode) {
         //    return; // не сохраняем в тестах
         //}
-        try {
-            storageStrategy.save(products, filePath);
-        } catch (Exception e) {
-            System.out.println("Error saving data: " + e.getMessage());
+        if (savesSuspended.get() > 0) {
+            saveDeferred.set(true);
+            return;
         }
+        if (shutDown) {
+            return;
+        }
+        if (savePending.compareAndSet(false, true)) {
+            saveTask = scheduler.schedule(this::flushScheduled, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Задача могла запуститься до отмены в shutdown: проверка под saveLock, как и запись в shutdown
+    private void flushScheduled() {
+        synchronized (saveLock) {
+            if (!shutDown) {
+                flush();
+            }
+        }
+    }
+
+    // Массовая загрузка (импорт CSV): фоновое сохранение каждые SAVE_DELAY_MILLIS копировало бы
+    // весь склад и переписывало файл много раз за импорт. Пока сохранения приостановлены,
+    // изменения только отмечаются; resumeSaves планирует одно сохранение в конце. Вызовы парные
+    void suspendSaves() {
+        savesSuspended.incrementAndGet();
     }
 
-    // Multithreading: Фоновый поток для проверки срока годности
-    private void startExpirationChecker() {
-        scheduler.scheduleAtFixedRate(() -> {
+    void resumeSaves() {
+        if (savesSuspended.decrementAndGet() == 0 && saveDeferred.getAndSet(false)) {
+            saveData();
+        }
+    }
+
+    // Немедленно записывает текущее состояние в файл
+    public void flush() {
+        synchronized (saveLock) {
+            savePending.set(false);
+            // Копируются только колонки; объекты продуктов создаются по одному во время записи
+            CompactProductStore copy = toCompactStore();
+            try {
+                storageStrategy.save(copy.asList(), filePath);
+            } catch (Exception e) {
+                System.out.println("Error saving data: " + e.getMessage());
+            }
+        }
+    }
+
+    // Multithreading: Фоновая задача для проверки срока годности
+    private ScheduledFuture<?> startExpirationChecker() {
+        return scheduler.scheduleAtFixedRate(() -> {
             List<FoodProduct> expired = getExpiredFoodProducts();
             if (!expired.isEmpty()) {
                 System.out.println("Notification: Expired products found: " + expired.size());
@@ -115,9 +771,23 @@ public class Warehouse {
         }, 0, 30, TimeUnit.SECONDS);
     }
 
+    // Общий планировщик не останавливается: отменяются только задачи этого склада
+    // Несохранённые изменения записываются сразу, отложенное сохранение отменяется:
+    // после shutdown склад сам в файл не пишет (удалённый после этого файл не появится снова)
     public void shutdown() {
-        scheduler.shutdown();
+        shutDown = true;
+        expirationTask.cancel(false);
+        ScheduledFuture<?> pendingSave = saveTask;
+        if (pendingSave != null) {
+            pendingSave.cancel(false);
+        }
+        synchronized (saveLock) {
+            if (savePending.get()) {
+                flush();
+            }
+        }
+        changePublisher.close();
     }
 
 
-}
\ No newline at end of file
+}
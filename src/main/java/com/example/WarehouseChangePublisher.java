@@ -0,0 +1,284 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Поток изменений склада (change data capture).
+// Последние события хранятся в кольцевом буфере, каждый подписчик читает его со своей позиции,
+// поэтому медленный подписчик не тормозит склад и остальных. Один элемент onNext - пачка событий,
+// request(n) разрешает n пачек. Группа событий одного изменения склада никогда не делится между пачками:
+// пачка может превысить maxBatchSize, чтобы дойти до конца группы. Подписчик, отставший больше чем на размер буфера, получает onError
+// и должен заново подписаться с нужного номера (или перечитать склад целиком);
+// это же случится, если одна группа больше буфера.
+// У журнала есть идентификатор (logId): он новый у каждого экземпляра и меняется, когда склад
+// заменяет содержимое без событий (loadData, replaceAll). Номер события осмыслен только вместе с logId,
+// подписки на прежний журнал завершаются с onError.
+// Буфер создаётся при первой подписке (или retainEvents): у склада без подписчиков события
+// только получают номера и не держат память. Возобновить чтение можно с момента создания буфера.
+public class WarehouseChangePublisher implements Flow.Publisher<List<WarehouseEvent>> {
+    public static final int DEFAULT_CAPACITY = 65_536;
+    public static final int DEFAULT_MAX_BATCH_SIZE = 256;
+
+    private final Executor executor;
+    private final int maxBatchSize;
+    private final int capacity;
+    private WarehouseEvent[] ring;   // null до первой подписки, guarded by this
+    private long retainedFrom;       // первый номер, записанный в буфер, guarded by this
+    private final List<ChangeSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private long lastSequence; // guarded by this
+    private long logId = newLogId(); // guarded by this
+    private long logStart = 1;       // первый номер текущего журнала, guarded by this
+    private volatile boolean closed;
+
+    public WarehouseChangePublisher() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CAPACITY, DEFAULT_MAX_BATCH_SIZE);
+    }
+
+    public WarehouseChangePublisher(Executor executor, int capacity, int maxBatchSize) {
+        if (capacity <= 0 || maxBatchSize <= 0) {
+            throw new IllegalArgumentException("capacity и maxBatchSize должны быть положительными");
+        }
+        this.executor = executor;
+        this.maxBatchSize = maxBatchSize;
+        this.capacity = capacity;
+    }
+
+    WarehouseEvent publish(WarehouseEvent.Type type, int productId, AbstractProduct product, int quantity) {
+        WarehouseEvent event = new WarehouseEvent(type, productId, product, quantity);
+        publishGroup(Collections.singletonList(event));
+        return event;
+    }
+
+    // Вызывается складом под его блокировкой записи, поэтому порядок номеров совпадает с порядком изменений.
+    // События получают подряд идущие номера, последнее помечается концом группы; подписчики будят один раз
+    void publishGroup(List<WarehouseEvent> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            for (int i = 0; i < events.size(); i++) {
+                WarehouseEvent event = events.get(i);
+                long sequence = ++lastSequence;
+                event.assign(sequence, now, i == events.size() - 1);
+                if (ring != null) {
+                    ring[(int) (sequence % capacity)] = event;
+                }
+            }
+        }
+        for (ChangeSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public synchronized long getLogId() {
+        return logId;
+    }
+
+    // logId и последний номер, согласованные между собой
+    public synchronized LogPosition getPosition() {
+        return new LogPosition(logId, lastSequence);
+    }
+
+    // Самый старый номер текущего журнала, с которого ещё можно возобновить чтение
+    public synchronized long getOldestRetainedSequence() {
+        if (ring == null) {
+            return lastSequence + 1;
+        }
+        return Math.max(Math.max(logStart, retainedFrom), lastSequence - capacity + 1);
+    }
+
+    // Начать хранить события, даже если подписчиков ещё нет (например, чтобы реплики могли
+    // возобновить чтение с номера, полученного вместе со снимком)
+    public synchronized void retainEvents() {
+        if (ring == null) {
+            ring = new WarehouseEvent[capacity];
+            retainedFrom = lastSequence + 1;
+        }
+    }
+
+    // Склад заменил содержимое без событий: прежние номера больше не описывают его состояние.
+    // Вызывается под блокировкой записи склада; текущие подписки получат onError
+    void startNewLog() {
+        synchronized (this) {
+            logId = newLogId();
+            logStart = lastSequence + 1;
+        }
+        for (ChangeSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    // 0 зарезервирован: у реплики без снимка журнала ещё нет
+    private static long newLogId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    // Подписка только на новые события
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<WarehouseEvent>> subscriber) {
+        subscribe(subscriber, getLastSequence() + 1);
+    }
+
+    // Подписка с возобновлением: первым придёт событие с номером fromSequence
+    public void subscribe(Flow.Subscriber<? super List<WarehouseEvent>> subscriber, long fromSequence) {
+        subscribe(subscriber, fromSequence, getLogId());
+    }
+
+    // Возобновление чтения журнала logId; если журнал уже сменился, подписчик сразу получит onError
+    public void subscribe(Flow.Subscriber<? super List<WarehouseEvent>> subscriber, long fromSequence, long logId) {
+        retainEvents();
+        ChangeSubscription subscription = new ChangeSubscription(subscriber, Math.max(1, fromSequence), logId);
+        subscriptions.add(subscription);
+        subscriber.onSubscribe(subscription);
+        subscription.signal();
+    }
+
+    public void close() {
+        closed = true;
+        for (ChangeSubscription subscription : subscriptions) {
+            subscription.signal();
+        }
+    }
+
+    // null - журнал сменился или нужные события уже вытеснены из буфера
+    private synchronized List<WarehouseEvent> readFrom(long sequence, long expectedLogId) {
+        if (expectedLogId != logId) {
+            return null;
+        }
+        if (sequence > lastSequence) {
+            return Collections.emptyList();
+        }
+        if (sequence < getOldestRetainedSequence()) {
+            return null;
+        }
+        List<WarehouseEvent> batch = new ArrayList<>((int) Math.min(maxBatchSize, lastSequence - sequence + 1));
+        for (long s = sequence; s <= lastSequence; s++) {
+            WarehouseEvent event = ring[(int) (s % capacity)];
+            batch.add(event);
+            if (batch.size() >= maxBatchSize && event.isEndOfGroup()) {
+                break;
+            }
+        }
+        return batch;
+    }
+
+    private class ChangeSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super List<WarehouseEvent>> subscriber;
+        private final long logId;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger pending = new AtomicInteger();
+        private volatile boolean cancelled;
+        private long nextSequence; // читается и меняется только внутри drain
+
+        ChangeSubscription(Flow.Subscriber<? super List<WarehouseEvent>> subscriber, long fromSequence, long logId) {
+            this.subscriber = subscriber;
+            this.nextSequence = fromSequence;
+            this.logId = logId;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                fail(new IllegalArgumentException("request должен быть положительным: " + n));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> {
+                long sum = current + added;
+                return sum < 0 ? Long.MAX_VALUE : sum;
+            });
+            signal();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        void signal() {
+            if (pending.getAndIncrement() == 0) {
+                executor.execute(this::drain);
+            }
+        }
+
+        // Только один drain одновременно на подписку; сигналы, пришедшие во время работы, не теряются
+        private void drain() {
+            int missed = 1;
+            do {
+                if (!cancelled && logId != getLogId()) {
+                    fail(new IllegalStateException("Журнал изменений сменился, нужен новый снимок склада"));
+                    return;
+                }
+                while (!cancelled && demand.get() > 0) {
+                    List<WarehouseEvent> batch = readFrom(nextSequence, logId);
+                    if (batch == null) {
+                        fail(new IllegalStateException(logId != getLogId()
+                                ? "Журнал изменений сменился, нужен новый снимок склада"
+                                : "Подписчик отстал: событие " + nextSequence + " уже вытеснено из буфера"));
+                        return;
+                    }
+                    if (batch.isEmpty()) {
+                        break;
+                    }
+                    nextSequence += batch.size();
+                    demand.decrementAndGet();
+                    try {
+                        subscriber.onNext(batch);
+                    } catch (Throwable t) {
+                        fail(t);
+                        return;
+                    }
+                }
+                if (!cancelled && closed && nextSequence > getLastSequence()) {
+                    cancel();
+                    subscriber.onComplete();
+                    return;
+                }
+                missed = pending.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        private void fail(Throwable error) {
+            if (!cancelled) {
+                cancel();
+                subscriber.onError(error);
+            }
+        }
+    }
+
+    // Место в журнале: идентификатор журнала и номер последнего события в нём
+    public static class LogPosition {
+        private final long logId;
+        private final long sequence;
+
+        LogPosition(long logId, long sequence) {
+            this.logId = logId;
+            this.sequence = sequence;
+        }
+
+        public long getLogId() {
+            return logId;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+    }
+}
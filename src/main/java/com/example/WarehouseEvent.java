@@ -0,0 +1,102 @@
+package com.example;
+
+// Событие изменения склада. Порядковый номер (sequence) строго возрастает в пределах одного склада.
+// Событие неизменяемо: для ADDED хранятся значения полей продукта на момент события, а не сам объект,
+// поэтому буфер не держит продукты склада и последующие изменения не попадают в старые события.
+// События одного изменения склада (addProducts, commit транзакции) образуют группу:
+// у последнего события группы isEndOfGroup() == true, применять группу нужно целиком
+public class WarehouseEvent {
+    private static final byte NO_PRODUCT = -1;
+
+    public enum Type {
+        ADDED,
+        REMOVED,
+        QUANTITY_CHANGED
+    }
+
+    // Номер, время и граница группы назначаются потоком изменений при публикации
+    private long sequence;
+    private final Type type;
+    private final int productId;
+    private final int quantity;   // новое количество для ADDED и QUANTITY_CHANGED
+    // Поля продукта, только для ADDED
+    private final byte kind;
+    private final String name;
+    private final double price;
+    private final int extra;
+    private long timestamp;
+    private boolean endOfGroup = true;
+
+    // Черновик события: номер и время назначит WarehouseChangePublisher.publishGroup
+    WarehouseEvent(Type type, int productId, AbstractProduct product, int quantity) {
+        this(0, type, productId, product, quantity, 0);
+    }
+
+    // Черновик ADDED прямо из колонок (пакетное добавление без объектов продуктов)
+    WarehouseEvent(int productId, byte kind, String name, double price, int quantity, int extra) {
+        this.type = Type.ADDED;
+        this.productId = productId;
+        this.quantity = quantity;
+        this.kind = kind;
+        this.name = name;
+        this.price = price;
+        this.extra = extra;
+    }
+
+    public WarehouseEvent(long sequence, Type type, int productId, AbstractProduct product, int quantity, long timestamp) {
+        this.sequence = sequence;
+        this.type = type;
+        this.productId = productId;
+        this.quantity = quantity;
+        this.kind = product == null ? NO_PRODUCT : CompactProductStore.kindOf(product);
+        this.name = product == null ? null : product.getName();
+        this.price = product == null ? 0 : product.getPrice();
+        this.extra = product == null ? 0 : CompactProductStore.extraOf(product);
+        this.timestamp = timestamp;
+    }
+
+    void assign(long sequence, long timestamp, boolean endOfGroup) {
+        this.sequence = sequence;
+        this.timestamp = timestamp;
+        this.endOfGroup = endOfGroup;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    // Последнее событие своей группы; одиночное событие - группа из одного
+    public boolean isEndOfGroup() {
+        return endOfGroup;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    // Каждый вызов возвращает новый объект; null, если событие не ADDED
+    public AbstractProduct getProduct() {
+        if (kind == NO_PRODUCT) {
+            return null;
+        }
+        return CompactProductStore.newProduct(kind, productId, name, price, quantity, extra);
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return "WarehouseEvent{sequence=" + sequence + ", type=" + type + ", productId=" + productId
+                + ", quantity=" + quantity + '}';
+    }
+}
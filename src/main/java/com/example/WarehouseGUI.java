@@ -8,7 +8,7 @@ import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
 
 public class WarehouseGUI extends JFrame {
-    private final Warehouse warehouse = Warehouse.getInstance();
+    private final Warehouse warehouse;
     private final JTextArea outputArea = new JTextArea(20, 40);
     private final JTextField idField = new JTextField(10);
     private final JTextField nameField = new JTextField(10);
@@ -17,16 +17,21 @@ public class WarehouseGUI extends JFrame {
     private final JTextField extraField = new JTextField(10); // Для expiration или warranty
     private final JComboBox<String> typeCombo = new JComboBox<>(new String[]{"Food", "Electronics"});
     private final JTextField searchField = new JTextField(10);
+    private final JComboBox<ProductSortKey> sortCombo = new JComboBox<>(ProductSortKey.values());
+    private static final int PAGE_SIZE = 50;
+    private String nextCursor; // курсор следующей страницы List Products
 
     public WarehouseGUI() {
-        setTitle("Warehouse Master");
+        this(Warehouse.getInstance());
+    }
+
+    public WarehouseGUI(Warehouse warehouse) {
+        this.warehouse = warehouse;
+        setTitle("Warehouse Master - " + warehouse.getFilePath());
         setSize(600, 400);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         setLayout(new FlowLayout());
 
-        // Load data on start
-        warehouse.loadData();
-
         // Buttons
         JButton addButton = new JButton("Add Product");
         addButton.addActionListener(new AddAction());
@@ -41,16 +46,39 @@ public class WarehouseGUI extends JFrame {
             }
         });
 
+        JButton quantityButton = new JButton("Change Quantity");
+        quantityButton.addActionListener(e -> {
+            try {
+                int id = Integer.parseInt(idField.getText());
+                int quantity = Integer.parseInt(quantityField.getText());
+                warehouse.updateQuantity(id, quantity);
+                outputArea.append("Quantity changed: ID " + id + " -> " + quantity + "\n");
+            } catch (IllegalArgumentException ex) {
+                JOptionPane.showMessageDialog(this, "Invalid ID or quantity.");
+            }
+        });
+
         JButton listButton = new JButton("List Products");
+        JButton nextPageButton = new JButton("Next Page");
+        nextPageButton.setEnabled(false);
         listButton.addActionListener(e -> {
-            outputArea.setText("");
-            warehouse.getAllProducts().forEach(p -> outputArea.append(p.toString() + "\n"));
+            nextCursor = null;
+            showPage(nextPageButton);
+        });
+        nextPageButton.addActionListener(e -> showPage(nextPageButton));
+        // Курсор относится к выбранной сортировке, при смене сортировки листаем заново
+        sortCombo.addActionListener(e -> {
+            nextCursor = null;
+            nextPageButton.setEnabled(false);
         });
 
         JButton analyticsButton = new JButton("Analytics");
         analyticsButton.addActionListener(e -> {
             outputArea.setText("Total Value: " + warehouse.getTotalValue() + "\n");
             outputArea.append("Product Types: " + warehouse.getProductTypeCounts() + "\n");
+            warehouse.getAggregatesByType().forEach((type, aggregate) ->
+                    outputArea.append(type + ": " + aggregate + "\n"));
+            outputArea.append("Cache: " + warehouse.getQueryCache() + "\n");
         });
 
         JButton searchButton = new JButton("Search by Name");
@@ -76,7 +104,11 @@ public class WarehouseGUI extends JFrame {
 
         add(addButton);
         add(removeButton);
+        add(quantityButton);
+        add(new JLabel("Sort:"));
+        add(sortCombo);
         add(listButton);
+        add(nextPageButton);
         add(analyticsButton);
 
         add(new JLabel("Search Name:"));
@@ -84,6 +116,7 @@ public class WarehouseGUI extends JFrame {
         add(searchButton);
 
         add(new JScrollPane(outputArea));
+        loadInBackground(addButton, removeButton, quantityButton, listButton, analyticsButton, searchButton);
 
         // Shutdown hook
         addWindowListener(new java.awt.event.WindowAdapter() {
@@ -96,6 +129,42 @@ public class WarehouseGUI extends JFrame {
         setVisible(true);
     }
 
+    // Загрузка не в потоке Swing: окно отрисовывается сразу, кнопки включаются после загрузки,
+    // чтобы изменения не смешались с ещё не загруженными данными
+    private void loadInBackground(JButton... buttons) {
+        for (JButton button : buttons) {
+            button.setEnabled(false);
+        }
+        outputArea.append("Loading " + warehouse.getFilePath() + "...\n");
+        new SwingWorker<Integer, Void>() {
+            @Override
+            protected Integer doInBackground() {
+                warehouse.loadData();
+                return warehouse.getProductCount();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    outputArea.append("Products in stock: " + get() + "\n");
+                } catch (Exception ex) {
+                    outputArea.append("Loading failed: " + ex.getMessage() + "\n");
+                }
+                for (JButton button : buttons) {
+                    button.setEnabled(true);
+                }
+            }
+        }.execute();
+    }
+
+    private void showPage(JButton nextPageButton) {
+        ProductPage page = warehouse.listProducts((ProductSortKey) sortCombo.getSelectedItem(), PAGE_SIZE, nextCursor);
+        outputArea.setText("");
+        page.getItems().forEach(p -> outputArea.append(p.toString() + "\n"));
+        nextCursor = page.getNextCursor();
+        nextPageButton.setEnabled(page.hasNext());
+    }
+
     private class AddAction implements ActionListener {
         @Override
         public void actionPerformed(ActionEvent e) {
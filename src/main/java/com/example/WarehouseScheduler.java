@@ -0,0 +1,34 @@
+package com.example;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Общий планировщик фоновых задач для всех складов в JVM (проверка сроков, сохранение).
+// Число потоков ограничено и не зависит от количества складов; потоки демоны и не держат JVM
+public final class WarehouseScheduler {
+    public static final int POOL_SIZE = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    private static final ScheduledExecutorService SHARED = create();
+
+    private WarehouseScheduler() {
+    }
+
+    public static ScheduledExecutorService shared() {
+        return SHARED;
+    }
+
+    private static ScheduledExecutorService create() {
+        AtomicInteger counter = new AtomicInteger();
+        ThreadFactory factory = task -> {
+            Thread thread = new Thread(task, "warehouse-scheduler-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(POOL_SIZE, factory);
+        // Отменённые задачи закрытых складов сразу убираются из очереди
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
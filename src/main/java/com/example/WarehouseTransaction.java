@@ -0,0 +1,117 @@
+package com.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Транзакция склада: операции накапливаются без блокировок и применяются все сразу в commit().
+// Для каждого затронутого товара запоминается его версия в момент первого обращения;
+// если к фиксации товар успел измениться, commit() бросает TransactionConflictException.
+// Если операция невыполнима (нет товара, количество уходит в минус), commit() бросает
+// IllegalStateException. В обоих случаях склад не меняется.
+// Пример перемещения: beginTransaction().adjustQuantity(a, -5).adjustQuantity(b, 5).add(c).commit()
+public class WarehouseTransaction {
+    private final Warehouse warehouse;
+    private final List<Operation> operations = new ArrayList<>();
+    private final Map<Integer, Long> readVersions = new LinkedHashMap<>();
+    private boolean finished;
+
+    WarehouseTransaction(Warehouse warehouse) {
+        this.warehouse = warehouse;
+    }
+
+    public WarehouseTransaction add(AbstractProduct product) {
+        return stage(new Operation(Operation.Type.ADD, product.getId(), product, product.getQuantity()));
+    }
+
+    public WarehouseTransaction remove(int id) {
+        return stage(new Operation(Operation.Type.REMOVE, id, null, 0));
+    }
+
+    public WarehouseTransaction setQuantity(int id, int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Количество не может быть отрицательным: " + quantity);
+        }
+        return stage(new Operation(Operation.Type.SET_QUANTITY, id, null, quantity));
+    }
+
+    // Увеличить (delta > 0) или уменьшить (delta < 0) количество
+    public WarehouseTransaction adjustQuantity(int id, int delta) {
+        return stage(new Operation(Operation.Type.ADJUST_QUANTITY, id, null, delta));
+    }
+
+    public List<Operation> getOperations() {
+        return Collections.unmodifiableList(operations);
+    }
+
+    public void commit() {
+        checkActive();
+        finished = true;
+        if (!operations.isEmpty()) {
+            warehouse.commit(operations, readVersions);
+        }
+    }
+
+    public void rollback() {
+        checkActive();
+        finished = true;
+        operations.clear();
+    }
+
+    private WarehouseTransaction stage(Operation operation) {
+        checkActive();
+        readVersions.computeIfAbsent(operation.getId(), warehouse::getSkuVersion);
+        operations.add(operation);
+        return this;
+    }
+
+    private void checkActive() {
+        if (finished) {
+            throw new IllegalStateException("Транзакция уже завершена");
+        }
+    }
+
+    public static class Operation {
+        public enum Type {
+            ADD,
+            REMOVE,
+            SET_QUANTITY,
+            ADJUST_QUANTITY
+        }
+
+        private final Type type;
+        private final int id;
+        private final AbstractProduct product; // только для ADD
+        private final int amount;              // количество или изменение количества
+
+        Operation(Type type, int id, AbstractProduct product, int amount) {
+            this.type = type;
+            this.id = id;
+            this.product = product;
+            this.amount = amount;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public AbstractProduct getProduct() {
+            return product;
+        }
+
+        public int getAmount() {
+            return amount;
+        }
+
+        @Override
+        public String toString() {
+            return type + "(id=" + id + ", amount=" + amount + ')';
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.example;
+
+import org.junit.jupiter.api.*;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReplicationTest {
+
+    private Path primaryFile;
+    private Path replicaFile;
+    private Warehouse primary;
+    private Warehouse replica;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        primaryFile = Files.createTempFile("primary", ".json");
+        replicaFile = Files.createTempFile("replica", ".json");
+        primary = new Warehouse(primaryFile.toString(), new JsonProductStorageStrategy());
+        replica = new Warehouse(replicaFile.toString(), new JsonProductStorageStrategy());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        primary.shutdown();
+        replica.shutdown();
+        Files.deleteIfExists(primaryFile);
+        Files.deleteIfExists(replicaFile);
+    }
+
+    @Test
+    @DisplayName("Реплика получает снимок, затем журнал изменений, и догоняет первичный склад")
+    void replicaCatchesUpFromSnapshotAndLog() throws Exception {
+        primary.addProduct(new FoodProduct(1, "Гречка", 110, 5, LocalDate.of(2031, 2, 1)));
+        primary.addProduct(new ElectronicsProduct(2, "Роутер", 3990, 2, 24));
+
+        try (ReplicationPrimary server = new ReplicationPrimary(primary, 0);
+             ReplicationReplica client = new ReplicationReplica(replica,
+                     new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()))) {
+
+            waitFor(() -> replica.getProductCount() == 2, "снимок должен дойти до реплики");
+
+            primary.updateQuantity(1, 42);
+            primary.removeProduct(2);
+            primary.addProduct(new ElectronicsProduct(3, "Свитч", 2490, 1, 12));
+
+            waitFor(() -> client.getLastAppliedSequence() == primary.getChangePublisher().getLastSequence(),
+                    "реплика должна применить все события");
+            assertEquals(0, client.getLagEvents());
+            assertEquals(2, replica.getProductCount());
+            assertEquals(42, replica.findById(1).getQuantity());
+            assertNull(replica.findById(2));
+            assertEquals("Свитч", replica.findById(3).getName());
+            assertEquals(primary.getTotalValue(), replica.getTotalValue(), 0.001);
+
+            // Транзакция первичного склада применяется на реплике одним изменением
+            long replicaVersion = replica.getVersion();
+            primary.beginTransaction().adjustQuantity(1, -2).adjustQuantity(3, -1).commit();
+            waitFor(() -> client.getLastAppliedSequence() == primary.getChangePublisher().getLastSequence(),
+                    "реплика должна применить транзакцию");
+            assertEquals(replicaVersion + 1, replica.getVersion());
+            assertEquals(40, replica.findById(1).getQuantity());
+            assertEquals(0, replica.findById(3).getQuantity());
+        }
+    }
+
+    @Test
+    @DisplayName("После обрыва реплика продолжает с последнего применённого номера")
+    void replicaResumesAfterReconnect() throws Exception {
+        primary.addProduct(new FoodProduct(10, "Чай", 300, 1, LocalDate.of(2031, 6, 1)));
+        InetSocketAddress address;
+
+        ReplicationPrimary server = new ReplicationPrimary(primary, 0);
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        try (ReplicationReplica client = new ReplicationReplica(replica, address)) {
+            waitFor(() -> replica.getProductCount() == 1, "снимок должен дойти до реплики");
+            server.close();
+
+            primary.addProduct(new FoodProduct(11, "Кофе", 700, 2, LocalDate.of(2031, 6, 1)));
+            try (ReplicationPrimary restarted = bindWithRetry(address)) {
+                waitFor(() -> client.getLastAppliedSequence() == primary.getChangePublisher().getLastSequence(),
+                        "реплика должна догнать журнал после переподключения");
+                assertEquals(restarted.getPort(), address.getPort());
+                assertEquals(2, replica.getProductCount());
+                assertEquals("Кофе", replica.findById(11).getName());
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("После loadData на первичном складе реплика получает новый снимок, а не продолжает старый журнал")
+    void replicaResnapshotsWhenPrimaryReloads() throws Exception {
+        primary.addProduct(new FoodProduct(20, "Рис", 95, 3, LocalDate.of(2031, 1, 1)));
+
+        try (ReplicationPrimary server = new ReplicationPrimary(primary, 0);
+             ReplicationReplica client = new ReplicationReplica(replica,
+                     new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()))) {
+            waitFor(() -> replica.getProductCount() == 1, "снимок должен дойти до реплики");
+            long oldLogId = client.getLogId();
+
+            // Файл первичного склада перезаписан другим складом, первичный перечитывает его без событий
+            Warehouse other = new Warehouse(primaryFile.toString(), new JsonProductStorageStrategy());
+            other.addProduct(new ElectronicsProduct(21, "Модем", 2990, 1, 12));
+            other.flush();
+            other.shutdown();
+            primary.loadData();
+            assertNotEquals(oldLogId, primary.getChangePublisher().getLogId());
+
+            waitFor(() -> client.getLogId() == primary.getChangePublisher().getLogId(),
+                    "реплика должна перейти на новый журнал");
+            assertEquals(1, replica.getProductCount());
+            assertNull(replica.findById(20));
+            assertEquals("Модем", replica.findById(21).getName());
+
+            primary.updateQuantity(21, 5);
+            waitFor(() -> replica.findById(21).getQuantity() == 5, "события нового журнала должны применяться");
+        }
+    }
+
+    @Test
+    @DisplayName("После перезапуска первичного склада отставание считается по его новому журналу")
+    void replicaLagFollowsRestartedPrimary() throws Exception {
+        primary.addProduct(new FoodProduct(30, "Сахар", 80, 1, LocalDate.of(2031, 3, 1)));
+        ReplicationPrimary server = new ReplicationPrimary(primary, 0);
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+        try (ReplicationReplica client = new ReplicationReplica(replica, address)) {
+            for (int i = 0; i < 50; i++) {
+                primary.updateQuantity(30, i);
+            }
+            waitFor(() -> client.getLastAppliedSequence() == primary.getChangePublisher().getLastSequence(),
+                    "реплика должна догнать первичный склад");
+            assertTrue(client.getPrimarySequence() > 50);
+
+            // Новый процесс первичного склада: те же данные, журнал снова с начала
+            primary.flush();
+            server.close();
+            Warehouse restartedWarehouse = new Warehouse(primaryFile.toString(), new JsonProductStorageStrategy());
+            try {
+                restartedWarehouse.loadData();
+                restartedWarehouse.updateQuantity(30, 7);
+                WarehouseChangePublisher publisher = restartedWarehouse.getChangePublisher();
+                try (ReplicationPrimary restarted = bindWithRetry(restartedWarehouse, address)) {
+                    waitFor(() -> client.getLogId() == publisher.getLogId()
+                                    && client.getLastAppliedSequence() == publisher.getLastSequence(),
+                            "реплика должна перейти на журнал перезапущенного склада");
+                    assertEquals(publisher.getLastSequence(), client.getPrimarySequence());
+                    assertEquals(0, client.getLagEvents());
+                    assertEquals(7, replica.findById(30).getQuantity());
+                }
+            } finally {
+                restartedWarehouse.shutdown();
+            }
+        }
+    }
+
+    private ReplicationPrimary bindWithRetry(InetSocketAddress address) throws Exception {
+        return bindWithRetry(primary, address);
+    }
+
+    // Закрытые соединения могут ещё недолго держать порт
+    private static ReplicationPrimary bindWithRetry(Warehouse warehouse, InetSocketAddress address) throws Exception {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (true) {
+            try {
+                return new ReplicationPrimary(warehouse, address);
+            } catch (java.net.BindException e) {
+                if (System.currentTimeMillis() > deadline) {
+                    throw e;
+                }
+                Thread.sleep(100);
+            }
+        }
+    }
+
+    private static void waitFor(BooleanSupplier condition, String message) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Не дождались: " + message);
+            }
+            Thread.sleep(20);
+        }
+    }
+}
@@ -2,31 +2,36 @@ package com.example;
 
 import org.junit.jupiter.api.*;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDate;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
 
 class WarehouseTest {
 
     private Warehouse warehouse;
+    private Path warehouseFile;
     private static final String TEST_FILE_PATH = "test_warehouse.json";
 
     @BeforeEach
-    void setUp() {
-        warehouse = Warehouse.getInstance();
-
-        // Очистка склада перед каждым тестом
-        List<AbstractProduct> all = new ArrayList<>(warehouse.getAllProducts());
-        for (AbstractProduct p : all) {
-            warehouse.removeProduct(p.getId());
-        }
-        
+    void setUp() throws Exception {
+        // Каждый тест получает свой пустой склад со своим файлом
+        warehouseFile = Files.createTempFile("warehouse", ".json");
+        warehouse = new Warehouse(warehouseFile.toString(), new JsonProductStorageStrategy());
     }
 
     @AfterEach
-    void tearDown() {
+    void tearDown() throws Exception {
+        warehouse.shutdown();
+        Files.deleteIfExists(warehouseFile);
     }
     
     //                UNIT-ТЕСТЫ
@@ -107,6 +112,368 @@ class WarehouseTest {
         assertEquals(1, counts.get("ElectronicsProduct"));
     }
 
+    @Test
+    @DisplayName("getAggregatesByType считает все агрегаты по типам за один проход")
+    void shouldAggregateByType() {
+        warehouse.addProduct(new FoodProduct(5101, "Кефир", 80, 3, LocalDate.of(2030, 5, 1)));
+        warehouse.addProduct(new FoodProduct(5102, "Сыр", 400, 2, LocalDate.of(2030, 4, 1)));
+        warehouse.addProduct(new ElectronicsProduct(5103, "Мышь", 990, 1, 12));
+
+        var aggregates = warehouse.getAggregatesByType();
+
+        ProductAggregate food = aggregates.get("FoodProduct");
+        assertEquals(2, food.getCount());
+        assertEquals(80 * 3 + 400 * 2, food.getTotalValue(), 0.001);
+        assertEquals(5, food.getTotalQuantity());
+        assertEquals(80, food.getMinPrice(), 0.001);
+        assertEquals(400, food.getMaxPrice(), 0.001);
+        assertEquals(240, food.getAveragePrice(), 0.001);
+        assertEquals(LocalDate.of(2030, 4, 1), food.getNearestExpiration());
+
+        ProductAggregate electronics = aggregates.get("ElectronicsProduct");
+        assertEquals(1, electronics.getCount());
+        assertNull(electronics.getNearestExpiration());
+    }
+
+    @Test
+    @DisplayName("getAggregatesByType на большом складе (параллельный путь) совпадает с последовательным подсчётом")
+    void parallelAggregationMatchesSequential() {
+        List<AbstractProduct> products = new ArrayList<>();
+        for (int i = 0; i < Warehouse.PARALLEL_AGGREGATION_THRESHOLD + 500; i++) {
+            products.add(i % 3 == 0
+                    ? new ElectronicsProduct(i, "Товар " + i, 10 + i % 50, i % 4, 12)
+                    : new FoodProduct(i, "Товар " + i, 1 + i % 20, i % 9, LocalDate.of(2030, 1, 1).plusDays(i % 400)));
+        }
+        warehouse.addProducts(products);
+
+        var aggregates = warehouse.getAggregatesByType();
+
+        for (String type : List.of("FoodProduct", "ElectronicsProduct")) {
+            ProductAggregate expected = new ProductAggregate();
+            products.stream().filter(p -> p.getClass().getSimpleName().equals(type)).forEach(expected::accept);
+            ProductAggregate actual = aggregates.get(type);
+            assertEquals(expected.getCount(), actual.getCount(), type);
+            assertEquals(expected.getTotalValue(), actual.getTotalValue(), 0.01, type);
+            assertEquals(expected.getTotalQuantity(), actual.getTotalQuantity(), type);
+            assertEquals(expected.getMinPrice(), actual.getMinPrice(), 0.0, type);
+            assertEquals(expected.getMaxPrice(), actual.getMaxPrice(), 0.0, type);
+            assertEquals(expected.getAveragePrice(), actual.getAveragePrice(), 1e-9, type);
+            assertEquals(expected.getNearestExpiration(), actual.getNearestExpiration(), type);
+        }
+        assertEquals(LocalDate.of(2030, 1, 1), aggregates.get("FoodProduct").getNearestExpiration());
+    }
+
+    @Test
+    @DisplayName("Поток изменений отдаёт события по порядку и продолжает с заданного номера")
+    void changeStreamDeliversOrderedEventsAndResumes() throws InterruptedException {
+        WarehouseChangePublisher publisher = warehouse.getChangePublisher();
+        assertEquals(publisher.getLastSequence() + 1, publisher.getOldestRetainedSequence(),
+                "Без подписчиков события не хранятся");
+        publisher.retainEvents();
+        long from = publisher.getLastSequence() + 1;
+
+        warehouse.addProduct(new FoodProduct(5201, "Масло", 250, 4, LocalDate.now().plusDays(20)));
+        warehouse.updateQuantity(5201, 7);
+        warehouse.removeProduct(5201);
+
+        List<WarehouseEvent> received = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        publisher.subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(List<WarehouseEvent> batch) {
+                received.addAll(batch);
+                batch.forEach(e -> done.countDown());
+                subscription.request(1);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, from);
+
+        assertTrue(done.await(5, TimeUnit.SECONDS), "Все три события должны прийти");
+        assertEquals(WarehouseEvent.Type.ADDED, received.get(0).getType());
+        assertEquals(4, received.get(0).getProduct().getQuantity(), "ADDED хранит состояние на момент события");
+        assertEquals(WarehouseEvent.Type.QUANTITY_CHANGED, received.get(1).getType());
+        assertEquals(7, received.get(1).getQuantity());
+        assertEquals(WarehouseEvent.Type.REMOVED, received.get(2).getType());
+        assertEquals(from, received.get(0).getSequence());
+        assertEquals(from + 2, received.get(2).getSequence());
+    }
+
+    @Test
+    @DisplayName("Поток изменений не отдаёт больше пачек, чем запросил подписчик")
+    void changeStreamRespectsDemand() {
+        WarehouseChangePublisher publisher = new WarehouseChangePublisher(Runnable::run, 16, 2);
+        publisher.retainEvents();
+        for (int i = 0; i < 5; i++) {
+            publisher.publish(WarehouseEvent.Type.REMOVED, i, null, 0);
+        }
+
+        List<List<WarehouseEvent>> batches = new ArrayList<>();
+        List<Flow.Subscription> subscriptions = new ArrayList<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscriptions.add(subscription);
+            }
+
+            @Override
+            public void onNext(List<WarehouseEvent> batch) {
+                batches.add(batch);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                fail("Неожиданная ошибка: " + throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, 1);
+
+        assertTrue(batches.isEmpty(), "Без request события не отправляются");
+        subscriptions.get(0).request(2);
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(3, batches.get(1).get(0).getSequence());
+    }
+
+    @Test
+    @DisplayName("Группа событий одного изменения не делится между пачками")
+    void changeStreamKeepsGroupsWhole() {
+        WarehouseChangePublisher publisher = new WarehouseChangePublisher(Runnable::run, 16, 2);
+        publisher.retainEvents();
+        List<WarehouseEvent> group = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            group.add(new WarehouseEvent(WarehouseEvent.Type.REMOVED, i, null, 0));
+        }
+        publisher.publishGroup(group);
+        publisher.publish(WarehouseEvent.Type.REMOVED, 3, null, 0);
+
+        List<List<WarehouseEvent>> batches = new ArrayList<>();
+        publisher.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(List<WarehouseEvent> batch) {
+                batches.add(batch);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                fail("Неожиданная ошибка: " + throwable);
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        }, 1);
+
+        assertEquals(2, batches.size());
+        assertEquals(3, batches.get(0).size(), "Пачка дотягивается до конца группы сверх maxBatchSize");
+        assertFalse(batches.get(0).get(1).isEndOfGroup());
+        assertTrue(batches.get(0).get(2).isEndOfGroup());
+        assertEquals(4, batches.get(1).get(0).getSequence());
+    }
+
+    @Test
+    @DisplayName("Компактное хранилище восстанавливает продукты и делит одинаковые названия")
+    void compactStoreRoundtripAndDeduplicatesNames() {
+        CompactProductStore store = new CompactProductStore();
+        for (int i = 0; i < 100_000; i++) {
+            if (i % 2 == 0) {
+                store.add(new FoodProduct(i, "Молоко " + (i % 100), 89.9, i % 7, LocalDate.of(2030, 1, 1).plusDays(i % 365)));
+            } else {
+                store.add(new ElectronicsProduct(i, "Кабель USB-C", 390, 1, 12));
+            }
+        }
+
+        FoodProduct food = (FoodProduct) store.toProduct(42);
+        assertEquals(42, food.getId());
+        assertEquals("Молоко 42", food.getName());
+        assertEquals(LocalDate.of(2030, 1, 1).plusDays(42), food.getExpirationDate());
+        ElectronicsProduct cable = (ElectronicsProduct) store.toProduct(43);
+        assertEquals(12, cable.getWarrantyMonths());
+        assertSame(store.toProduct(1).getName(), store.toProduct(3).getName());
+
+        CompactProductStore.View view = store.view();
+        assertEquals(390, view.at(99_999).getPrice(), 0.001);
+        assertFalse(view.isFood());
+
+        CompactProductStore.FootprintEstimate estimate = store.estimateFootprint();
+        assertEquals(51, estimate.getUniqueNames());
+        assertTrue(estimate.getEstimatedBytesPerSku() < 100, "Ожидалось меньше 100 байт на SKU: " + estimate);
+    }
+
+    @Test
+    @DisplayName("Склад на колонках: удаление с переносом строки, повторные id, копии наружу")
+    void columnarWarehouseKeepsRowsConsistent() {
+        warehouse.listProducts(ProductSortKey.VALUE, 10, null); // индекс строится и дальше обновляется
+        warehouse.addProduct(new ElectronicsProduct(1, "Датчик", 100, 1, 6));
+        warehouse.addProduct(new ElectronicsProduct(2, "Реле", 50, 1, 6));
+        warehouse.addProduct(new ElectronicsProduct(3, "Шлейф", 10, 1, 6));
+        warehouse.addProduct(new ElectronicsProduct(2, "Реле", 50, 2, 6));
+        warehouse.addProduct(new ElectronicsProduct(4, "Плата", 400, 1, 6));
+
+        warehouse.removeProduct(1); // на место первой строки переносится последняя
+        assertEquals(400, warehouse.findById(4).getPrice(), 0.0);
+        warehouse.updateQuantity(2, 9);
+        assertEquals(50 * 9 * 2 + 10 + 400, warehouse.getTotalValue(), 0.001);
+        warehouse.removeProduct(2);
+
+        assertEquals(2, warehouse.getProductCount());
+        assertNull(warehouse.findById(2));
+        assertEquals(List.of(3, 4), warehouse.listProducts(ProductSortKey.VALUE, 10, null).getItems().stream()
+                .map(AbstractProduct::getId).toList());
+
+        warehouse.getAllProducts().get(0).setQuantity(1000);
+        assertEquals(10 + 400, warehouse.getTotalValue(), 0.001);
+    }
+
+    @Test
+    @DisplayName("Кэш запросов: повторный запрос - попадание, после изменения - пересчёт")
+    void queryCacheHitsAndInvalidatesOnChange() {
+        warehouse.addProduct(new FoodProduct(5301, "Печенье", 99, 2, LocalDate.now().plusDays(40)));
+        QueryCache cache = warehouse.getQueryCache();
+
+        assertEquals(1, warehouse.searchByName("печенье").size());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, warehouse.searchByName("ПЕЧЕНЬЕ").size());
+        assertEquals(1, cache.getHits());
+
+        long version = warehouse.getVersion();
+        warehouse.addProduct(new FoodProduct(5302, "Печенье овсяное", 120, 1, LocalDate.now().plusDays(40)));
+        assertTrue(warehouse.getVersion() > version);
+        assertEquals(2, warehouse.searchByName("печенье").size());
+        assertEquals(1, cache.getHits());
+
+        warehouse.updateQuantity(5301, 10);
+        assertEquals(99 * 10 + 120, warehouse.getTotalValue(), 0.001);
+
+        // Попадание в кэш отдаёт новые объекты: изменение полученного товара не портит следующий ответ
+        warehouse.searchByName("печенье").get(0).setQuantity(500);
+        assertEquals(10, warehouse.searchByName("печенье").get(0).getQuantity());
+    }
+
+    @Test
+    @DisplayName("Кэш запросов вытесняет давно не используемые записи")
+    void queryCacheEvictsLeastRecentlyUsed() {
+        QueryCache cache = new QueryCache(2);
+        cache.get("a", 1, () -> 1);
+        cache.get("b", 1, () -> 2);
+        cache.get("a", 1, () -> 1);
+        cache.get("c", 1, () -> 3);
+
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, (int) cache.get("a", 1, () -> -1));
+        assertEquals(-2, (int) cache.get("b", 1, () -> -2));
+
+        // Лимит веса: тяжёлый результат вытесняет старые записи, а тяжелее лимита - не кэшируется
+        QueryCache weighted = new QueryCache(10, 4);
+        weighted.get("small", 1, () -> new int[]{1});
+        weighted.get("large", 1, () -> new int[]{1, 2, 3, 4});
+        assertEquals(1, weighted.size());
+        assertEquals(4, weighted.getWeight());
+        weighted.get("huge", 1, () -> new int[5]);
+        weighted.get("huge", 1, () -> new int[5]);
+        assertEquals(0, weighted.getHits());
+        assertEquals(4, weighted.getWeight());
+    }
+
+    @Test
+    @DisplayName("Транзакция применяет все операции сразу и одной версией")
+    void transactionAppliesAllOperationsAtOnce() {
+        warehouse.addProduct(new FoodProduct(5401, "Мука", 70, 10, LocalDate.now().plusMonths(6)));
+        warehouse.addProduct(new FoodProduct(5402, "Мука", 70, 0, LocalDate.now().plusMonths(6)));
+        long version = warehouse.getVersion();
+        long sequence = warehouse.getChangePublisher().getLastSequence();
+
+        warehouse.beginTransaction()
+                .adjustQuantity(5401, -4)
+                .adjustQuantity(5402, 4)
+                .add(new ElectronicsProduct(5403, "Весы", 1500, 1, 12))
+                .commit();
+
+        assertEquals(6, warehouse.findById(5401).getQuantity());
+        assertEquals(4, warehouse.findById(5402).getQuantity());
+        assertNotNull(warehouse.findById(5403));
+        assertEquals(version + 1, warehouse.getVersion());
+        assertEquals(sequence + 3, warehouse.getChangePublisher().getLastSequence());
+    }
+
+    @Test
+    @DisplayName("Невыполнимая транзакция не меняет склад")
+    void invalidTransactionLeavesWarehouseUnchanged() {
+        warehouse.addProduct(new FoodProduct(5501, "Соль", 20, 3, LocalDate.now().plusMonths(12)));
+        long version = warehouse.getVersion();
+
+        WarehouseTransaction tx = warehouse.beginTransaction()
+                .add(new FoodProduct(5502, "Перец", 60, 1, LocalDate.now().plusMonths(12)))
+                .adjustQuantity(5501, -5);
+
+        assertThrows(IllegalStateException.class, tx::commit);
+        assertEquals(3, warehouse.findById(5501).getQuantity());
+        assertNull(warehouse.findById(5502));
+        assertEquals(version, warehouse.getVersion());
+    }
+
+    @Test
+    @DisplayName("Транзакция и пачка с продуктом, который нельзя сохранить, не меняют склад и не публикуют событий")
+    void unstorableProductLeavesWarehouseUnchanged() {
+        warehouse.addProduct(new FoodProduct(5511, "Мука", 50, 10, LocalDate.now().plusMonths(6)));
+        double total = warehouse.getTotalValue();
+        long sequence = warehouse.getChangePublisher().getLastSequence();
+        AbstractProduct unknown = new AbstractProduct(5512, "Игрушка", 10, 1) {
+        };
+
+        WarehouseTransaction tx = warehouse.beginTransaction().adjustQuantity(5511, -5).add(unknown);
+        assertThrows(IllegalArgumentException.class, tx::commit);
+        assertThrows(IllegalArgumentException.class, () -> warehouse.addProducts(List.of(
+                new ElectronicsProduct(5513, "Кабель", 100, 1, 6), unknown)));
+
+        assertEquals(10, warehouse.findById(5511).getQuantity());
+        assertNull(warehouse.findById(5513));
+        assertEquals(total, warehouse.getTotalValue(), 0.001);
+        warehouse.removeProduct(999_999);
+        assertEquals(sequence, warehouse.getChangePublisher().getLastSequence());
+    }
+
+    @Test
+    @DisplayName("Транзакции на разных товарах фиксируются, на одном и том же - конфликт")
+    void transactionConflictsOnlyOnSameProducts() {
+        warehouse.addProduct(new ElectronicsProduct(5601, "Кабель", 200, 10, 6));
+        warehouse.addProduct(new ElectronicsProduct(5602, "Зарядка", 900, 10, 6));
+
+        WarehouseTransaction first = warehouse.beginTransaction().adjustQuantity(5601, -1);
+        WarehouseTransaction disjoint = warehouse.beginTransaction().adjustQuantity(5602, -1);
+        WarehouseTransaction overlapping = warehouse.beginTransaction().adjustQuantity(5601, -2);
+
+        first.commit();
+        disjoint.commit();
+        TransactionConflictException conflict = assertThrows(TransactionConflictException.class, overlapping::commit);
+
+        assertEquals(5601, conflict.getProductId());
+        assertEquals(9, warehouse.findById(5601).getQuantity());
+        assertEquals(9, warehouse.findById(5602).getQuantity());
+    }
+
     @Test
     @DisplayName("Добавление продукта с нулевой ценой и нулевым количеством")
     void addZeroPriceAndZeroQuantity() {
@@ -197,6 +564,275 @@ class WarehouseTest {
         }
     }
 
+    @Test
+    @DisplayName("Бинарный снимок: сохранение -> открытие -> поиск по индексу id")
+    void snapshotRoundtripWithIdIndex() throws Exception {
+        Path file = Files.createTempFile("warehouse", ".snapshot");
+        try {
+            List<AbstractProduct> products = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                int id = 50_000 - i * 3;
+                products.add(i % 2 == 0
+                        ? new FoodProduct(id, "Йогурт " + (i % 10), 55 + i, i, LocalDate.of(2031, 1, 1).plusDays(i))
+                        : new ElectronicsProduct(id, "Адаптер", 700, 1, 24));
+            }
+            new SnapshotProductStorageStrategy().save(products, file.toString());
+
+            List<AbstractProduct> loaded = new SnapshotProductStorageStrategy().load(file.toString());
+            assertEquals(1000, loaded.size());
+
+            ProductSnapshot snapshot = (ProductSnapshot) loaded;
+            FoodProduct found = (FoodProduct) snapshot.findById(50_000 - 10 * 3);
+            assertEquals("Йогурт 0", found.getName());
+            assertEquals(65, found.getPrice(), 0.001);
+            assertEquals(LocalDate.of(2031, 1, 11), found.getExpirationDate());
+            assertSame(found, loaded.get(10));
+            assertNull(snapshot.findById(1));
+
+            ElectronicsProduct adapter = (ElectronicsProduct) loaded.get(999);
+            assertEquals(50_000 - 999 * 3, adapter.getId());
+            assertEquals(24, adapter.getWarrantyMonths());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("Независимые склады не видят данных друг друга")
+    void warehousesAreIndependent() throws Exception {
+        Path otherFile = Files.createTempFile("warehouse-other", ".json");
+        Warehouse other = new Warehouse(otherFile.toString(), new JsonProductStorageStrategy());
+        try {
+            warehouse.addProduct(new FoodProduct(7101, "Рис", 95, 10, LocalDate.now().plusMonths(6)));
+            other.addProduct(new ElectronicsProduct(7102, "Лампа", 350, 4, 12));
+
+            assertEquals(1, warehouse.getAllProducts().size());
+            assertEquals(7101, warehouse.getAllProducts().get(0).getId());
+            assertEquals(1, other.getAllProducts().size());
+            assertEquals(7102, other.getAllProducts().get(0).getId());
+        } finally {
+            other.shutdown();
+            Files.deleteIfExists(otherFile);
+        }
+    }
+
+    @Test
+    @DisplayName("Склад на снимке: flush -> loadData -> поиск по id до полной загрузки")
+    void snapshotWarehouseLoadsLazily() throws Exception {
+        Path file = Files.createTempFile("warehouse", ".snapshot");
+        Warehouse source = new Warehouse(file.toString(), new SnapshotProductStorageStrategy());
+        Warehouse restored = new Warehouse(file.toString(), new SnapshotProductStorageStrategy());
+        try {
+            for (int i = 0; i < 100; i++) {
+                source.addProduct(new ElectronicsProduct(7200 + i, "Датчик " + i, 100 + i, i, 6));
+            }
+            source.addProduct(new ElectronicsProduct(7300, null, 10, 1, 6));
+            source.addProduct(new ElectronicsProduct(7301, "", 10, 1, 6));
+            source.flush();
+
+            restored.loadData();
+            assertEquals(102, restored.getProductCount());
+            assertEquals("Датчик 42", restored.findById(7242).getName());
+            assertNull(restored.findById(7300).getName());
+            assertEquals("", restored.findById(7301).getName());
+            assertEquals(102, restored.getAllProducts().size());
+            assertEquals(source.getTotalValue(), restored.getTotalValue(), 0.001);
+            assertEquals(1, restored.searchByName("датчик 42").size());
+            ProductPage first = restored.listProducts(ProductSortKey.ID, 30, null);
+            assertEquals(7200, first.getItems().get(0).getId());
+            assertTrue(restored.isReadingSnapshot(), "Чтение не должно переносить снимок в память");
+
+            // Первая запись переносит снимок в память, курсор снимка продолжает листание
+            restored.removeProduct(7230);
+            assertFalse(restored.isReadingSnapshot());
+            ProductPage second = restored.listProducts(ProductSortKey.ID, 30, first.getNextCursor());
+            assertEquals(7231, second.getItems().get(0).getId());
+            assertEquals(101, restored.getProductCount());
+            assertNull(restored.findById(7230));
+        } finally {
+            source.shutdown();
+            restored.shutdown();
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("После shutdown отложенное сохранение не срабатывает и файл не пишется")
+    void shutdownCancelsPendingSave() throws Exception {
+        Path file = Files.createTempFile("shutdown", ".json");
+        Warehouse stopped = new Warehouse(file.toString(), new JsonProductStorageStrategy());
+        try {
+            stopped.addProduct(new ElectronicsProduct(7360, "Наушники", 990, 1, 12));
+            stopped.shutdown();
+            assertTrue(Files.readString(file).contains("Наушники"), "shutdown сохраняет несохранённые изменения");
+
+            Files.delete(file);
+            stopped.addProduct(new ElectronicsProduct(7361, "Колонка", 1990, 1, 12));
+            Thread.sleep(Warehouse.SAVE_DELAY_MILLIS * 3);
+            assertFalse(Files.exists(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("warehouse.json старой версии один раз переносится в снимок")
+    void legacyJsonIsMigratedToSnapshotOnce() throws Exception {
+        Path json = Files.createTempFile("legacy", ".json");
+        Path snapshot = json.resolveSibling(json.getFileName() + ".snapshot");
+        Warehouse legacy = new Warehouse(json.toString(), new JsonProductStorageStrategy());
+        legacy.addProduct(new ElectronicsProduct(7350, "Кабель", 150, 3, 6));
+        legacy.flush();
+        legacy.shutdown();
+
+        Warehouse migrated = new Warehouse(snapshot.toString(), new SnapshotProductStorageStrategy(json.toString()));
+        Warehouse reopened = new Warehouse(snapshot.toString(), new SnapshotProductStorageStrategy(json.toString()));
+        try {
+            migrated.loadData();
+            assertTrue(Files.exists(snapshot));
+            assertTrue(migrated.isReadingSnapshot());
+            assertEquals("Кабель", migrated.findById(7350).getName());
+
+            // Снимок уже есть: JSON больше не читается
+            Files.writeString(json, "[]");
+            reopened.loadData();
+            assertEquals(1, reopened.getProductCount());
+        } finally {
+            migrated.shutdown();
+            reopened.shutdown();
+            Files.deleteIfExists(json);
+            Files.deleteIfExists(snapshot);
+        }
+    }
+
+    @Test
+    @DisplayName("Еда без срока годности хранится и загружается из JSON, неподдерживаемый продукт отклоняется")
+    void foodWithoutExpirationIsStored() throws Exception {
+        Files.writeString(warehouseFile, "[{\"type\":\"FoodProduct\",\"id\":7401,\"name\":\"Соль\",\"price\":25.0,"
+                + "\"quantity\":4}]");
+        warehouse.loadData();
+
+        FoodProduct salt = (FoodProduct) warehouse.findById(7401);
+        assertNotNull(salt);
+        assertNull(salt.getExpirationDate());
+        assertTrue(warehouse.getExpiredFoodProducts().isEmpty());
+        assertNull(warehouse.getAggregatesByType().get("FoodProduct").getNearestExpiration());
+        assertTrue(salt.toString().contains("expirationDate=none"));
+
+        IllegalArgumentException error = assertThrows(IllegalArgumentException.class,
+                () -> warehouse.addProduct(new AbstractProduct(7402, "Игрушка", 10, 1) {
+                }));
+        assertTrue(error.getMessage().contains("FoodProduct"));
+        assertThrows(IllegalArgumentException.class, () -> warehouse.addProduct(null));
+        assertEquals(1, warehouse.getProductCount());
+    }
+
+    @Test
+    @DisplayName("CSV: экспорт -> импорт восстанавливает продукты, ошибочные строки попадают в отчёт")
+    void csvExportImportRoundtripWithRejectedRows() throws Exception {
+        Path file = Files.createTempFile("products", ".csv");
+        try {
+            List<AbstractProduct> products = List.of(
+                    new FoodProduct(7301, "Сок \"Яблоко, 1л\"", 119.99, 12, LocalDate.of(2031, 3, 15)),
+                    new ElectronicsProduct(7302, "Клавиатура", 2590.5, 3, 18));
+            new CsvProductExporter().export(products, file);
+            Files.writeString(file, String.join("\n",
+                    "FoodProduct,7303,Мёд,450,x,2031-01-01",
+                    "FoodProduct,7304,Сахар,80,1,2031-02-30",
+                    "ToyProduct,7305,Мяч,300,1,0",
+                    "ElectronicsProduct,7306,Флешка,-1,1,12",
+                    "FoodProduct,7307,Соль,25.5,9,2032-12-31",
+                    "FoodProduct,7311,Мука,60,1,2032-02-29",
+                    "FoodProduct,7312,Рис,90,1,2031-02-29"), java.nio.file.StandardOpenOption.APPEND);
+
+            CsvImportResult result = new CsvProductImporter(2).importInto(warehouse, file);
+
+            assertEquals(4, result.getImported());
+            assertEquals(5, result.getRejected());
+            assertEquals(4, result.getRejectedRows().get(0).getLineNumber());
+            FoodProduct juice = (FoodProduct) warehouse.findById(7301);
+            assertEquals("Сок \"Яблоко, 1л\"", juice.getName());
+            assertEquals(119.99, juice.getPrice(), 0.0);
+            assertEquals(LocalDate.of(2031, 3, 15), juice.getExpirationDate());
+            assertEquals(18, ((ElectronicsProduct) warehouse.findById(7302)).getWarrantyMonths());
+            assertEquals(25.5, warehouse.findById(7307).getPrice(), 0.0);
+            assertEquals(LocalDate.of(2032, 12, 31), ((FoodProduct) warehouse.findById(7307)).getExpirationDate());
+            assertEquals(LocalDate.of(2032, 2, 29), ((FoodProduct) warehouse.findById(7311)).getExpirationDate());
+
+            // Выгрузка склада из колонок: название null, пустое название и еда без срока переживают обмен
+            warehouse.addProduct(new ElectronicsProduct(7308, null, 10, 1, 6));
+            warehouse.addProduct(new ElectronicsProduct(7309, "", 10, 1, 6));
+            warehouse.addProduct(new FoodProduct(7310, "Соль", 25, 1, null));
+            new CsvProductExporter().export(warehouse, file);
+            List<AbstractProduct> reimported = new ArrayList<>();
+            CsvImportResult again = new CsvProductImporter().importFile(file, reimported::addAll);
+            assertEquals(0, again.getRejected());
+            assertEquals(warehouse.getAllProducts().toString(), reimported.toString());
+            assertNull(reimported.get(4).getName());
+            assertEquals("", reimported.get(5).getName());
+            assertNull(((FoodProduct) reimported.get(6)).getExpirationDate());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    @DisplayName("Постраничный вывод: порядок сортировки и курсор, устойчивый к изменениям между страницами")
+    void listProductsPagesWithStableCursor() {
+        for (int i = 1; i <= 10; i++) {
+            warehouse.addProduct(new ElectronicsProduct(9000 + i, "Товар " + (char) ('a' + i), 100 - i, 1, 12));
+        }
+
+        ProductPage first = warehouse.listProducts(ProductSortKey.PRICE, 4, null);
+        assertEquals(List.of(9010, 9009, 9008, 9007), first.getItems().stream().map(AbstractProduct::getId).toList());
+        assertTrue(first.hasNext());
+
+        // Между страницами: удалён ещё не показанный товар, добавлены товары до и после курсора
+        warehouse.removeProduct(9006);
+        warehouse.addProduct(new ElectronicsProduct(9100, "Дешёвый", 1, 1, 12));
+        warehouse.addProduct(new ElectronicsProduct(9101, "Дорогой", 500, 1, 12));
+
+        ProductPage second = warehouse.listProducts(ProductSortKey.PRICE, 4, first.getNextCursor());
+        assertEquals(List.of(9005, 9004, 9003, 9002), second.getItems().stream().map(AbstractProduct::getId).toList());
+        ProductPage last = warehouse.listProducts(ProductSortKey.PRICE, 4, second.getNextCursor());
+        assertEquals(List.of(9001, 9101), last.getItems().stream().map(AbstractProduct::getId).toList());
+        assertFalse(last.hasNext());
+
+        // Стоимость зависит от количества: индекс переставляет товар после updateQuantity
+        assertEquals(9100, warehouse.listProducts(ProductSortKey.VALUE, 1, null).getItems().get(0).getId());
+        warehouse.updateQuantity(9100, 1000);
+        List<AbstractProduct> byValue = warehouse.listProducts(ProductSortKey.VALUE, 20, null).getItems();
+        assertEquals(9100, byValue.get(byValue.size() - 1).getId());
+        assertThrows(IllegalArgumentException.class,
+                () -> warehouse.listProducts(ProductSortKey.NAME, 4, first.getNextCursor()));
+
+        // Товар без названия в сортировке по имени идёт первым, курсор после него работает
+        warehouse.addProduct(new ElectronicsProduct(9102, null, 10, 1, 12));
+        ProductPage byName = warehouse.listProducts(ProductSortKey.NAME, 1, null);
+        assertEquals(9102, byName.getItems().get(0).getId());
+        assertEquals(9100, warehouse.listProducts(ProductSortKey.NAME, 1, byName.getNextCursor()).getItems().get(0).getId());
+
+        // Большая пачка вливается в уже построенный индекс; удаление переносит последнюю строку
+        List<AbstractProduct> batch = new ArrayList<>();
+        for (int i = 0; i < Warehouse.INDEX_MERGE_THRESHOLD * 2; i++) {
+            batch.add(new ElectronicsProduct(9200 + i, "Пачка", (i * 37) % 101, 1, 12));
+        }
+        warehouse.addProducts(batch);
+        warehouse.removeProduct(9003);
+        List<Integer> paged = new ArrayList<>();
+        String cursor = null;
+        do {
+            ProductPage page = warehouse.listProducts(ProductSortKey.PRICE, 7, cursor);
+            page.getItems().forEach(p -> paged.add(p.getId()));
+            cursor = page.getNextCursor();
+        } while (cursor != null);
+        List<Integer> expected = warehouse.getAllProducts().stream()
+                .sorted(Comparator.comparingDouble(AbstractProduct::getPrice).thenComparingInt(AbstractProduct::getId))
+                .map(AbstractProduct::getId)
+                .toList();
+        assertEquals(expected, paged);
+    }
+
     @Test
     @DisplayName("Полный цикл: добавление -> поиск -> удаление -> проверка пустоты")
     void fullLifecycleTest() {